@@ -1,21 +1,40 @@
 package io.protop.cli;
 
 import io.protop.cli.errors.ExceptionHandler;
+import io.protop.core.Context;
+import io.protop.core.RuntimeConfiguration;
+import io.protop.core.cache.CacheCollector;
 import io.protop.core.cache.CacheService;
+import io.protop.core.lock.Lockfile;
+import io.protop.core.lock.LockfileNotFound;
 import io.protop.core.logs.Logger;
 import io.protop.core.logs.Logs;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.storage.Storage;
 import io.protop.core.storage.StorageService;
+import io.protop.utils.UnitUtils;
 import org.jline.reader.LineReader;
 import org.jline.reader.LineReaderBuilder;
 import org.jline.reader.MaskingCallback;
 import org.jline.reader.impl.DefaultParser;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 @CommandLine.Command(name = "cache",
         subcommands = {
-                Cache.Clean.class
+                Cache.Clean.class,
+                Cache.Gc.class,
+                Cache.EmptyTrash.class
         },
         description = "Manipulate the system-wide cache.")
 public class Cache implements Runnable {
@@ -76,4 +95,120 @@ public class Cache implements Runnable {
             return Objects.equals(answer, "y");
         }
     }
+
+    @CommandLine.Command(name = "gc",
+            description = "Evict dependencies that weren't used recently from the cache.")
+    public static class Gc implements Runnable {
+
+        private static final Logger logger = Logger.getLogger(Gc.class);
+
+        @CommandLine.ParentCommand
+        private Cache cache;
+
+        @CommandLine.Option(names = {"--max-size"},
+                description = "Evict the least recently used dependencies until the cache fits, e.g. 10g " +
+                        "(default: cache.max.size in .protoprc).",
+                required = false,
+                converter = SizeConverter.class)
+        private Long maxSize;
+
+        @CommandLine.Option(names = {"--max-age"},
+                description = "Evict dependencies that weren't used for this long, e.g. 30d " +
+                        "(default: cache.max.age in .protoprc).",
+                required = false,
+                converter = DurationConverter.class)
+        private Duration maxAge;
+
+        @CommandLine.Option(names = {"--keep"},
+                description = "Never evict the dependencies in this lockfile (those of the project in the " +
+                        "current directory are always kept).",
+                required = false)
+        private List<Path> lockfiles;
+
+        public void run() {
+            Logs.enableIf(cache.protop.isDebugMode());
+            new ExceptionHandler().run(() -> {
+                Path location = Path.of(".").toAbsolutePath();
+                RuntimeConfiguration cliRc = RuntimeConfiguration.builder()
+                        .cacheMaxSize(maxSize)
+                        .cacheMaxAge(maxAge)
+                        .build();
+                boolean inProject = Files.isRegularFile(location.resolve(Manifest.PROTOP_JSON));
+                Context context = inProject ? Context.from(location, cliRc) : Context.from(cliRc);
+
+                Set<Path> retained = new HashSet<>();
+                Lockfile.from(location).ifPresent(lockfile -> retained.addAll(CacheCollector.getEntriesOf(lockfile)));
+                for (Path lockfilePath : Optional.ofNullable(lockfiles).orElseGet(Collections::emptyList)) {
+                    Path directory = Files.isDirectory(lockfilePath) ? lockfilePath : lockfilePath.getParent();
+                    Lockfile lockfile = Lockfile.from(directory)
+                            .orElseThrow(LockfileNotFound::new);
+                    retained.addAll(CacheCollector.getEntriesOf(lockfile));
+                }
+                retained.addAll(CacheCollector.getEntriesLinkedFrom(location
+                        .resolve(Storage.ProjectDirectory.PROTOP.getName())
+                        .resolve(Storage.ProjectDirectory.DEPS.getName())));
+
+                CacheService cacheService = new CacheService(new StorageService());
+                CacheCollector.Result result = cacheService.collectGarbage(CacheCollector.Policy.builder()
+                        .maxSize(context.getRc().getCacheMaxSize())
+                        .maxAge(context.getRc().getCacheMaxAge())
+                        .retained(retained)
+                        .build())
+                        .blockingGet();
+                logger.always(String.format("Evicted %d entries (%s).",
+                        result.getEvicted(), UnitUtils.formatSize(result.getEvictedSize())));
+                if (result.getEvicted() > 0) {
+                    emptyTrashDetached();
+                }
+            });
+        }
+
+        /**
+         * Empty the trash in a process of its own, so that this one is done as soon as everything is evicted. If
+         * it can't be started, whatever is in the trash is deleted the next time.
+         */
+        private static void emptyTrashDetached() {
+            try {
+                new ProcessBuilder(
+                        Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"),
+                        ProtopCli.class.getName(), "cache", "empty-trash")
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to start emptying the trash.", e);
+            }
+        }
+    }
+
+    @CommandLine.Command(name = "empty-trash",
+            hidden = true,
+            description = "Delete what was evicted from the cache.")
+    public static class EmptyTrash implements Runnable {
+
+        @CommandLine.ParentCommand
+        private Cache cache;
+
+        public void run() {
+            Logs.enableIf(cache.protop.isDebugMode());
+            new ExceptionHandler().run(() -> new CacheService(new StorageService())
+                    .emptyTrash()
+                    .blockingAwait());
+        }
+    }
+
+    static class SizeConverter implements CommandLine.ITypeConverter<Long> {
+
+        public Long convert(String value) {
+            return UnitUtils.parseSize(value);
+        }
+    }
+
+    static class DurationConverter implements CommandLine.ITypeConverter<Duration> {
+
+        public Duration convert(String value) {
+            return UnitUtils.parseDuration(value);
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package io.protop.cli;
+
+import io.protop.cli.errors.ExceptionHandler;
+import io.protop.core.Context;
+import io.protop.core.RuntimeConfiguration;
+import io.protop.core.auth.AuthService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.lock.Lockfile;
+import io.protop.core.lock.LockfileNotFound;
+import io.protop.core.logs.Logger;
+import io.protop.core.logs.Logs;
+import io.protop.core.manifest.DependencyMap;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.ManifestNotFound;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.InvalidRevision;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.RevisionUtils;
+import io.protop.core.storage.StorageService;
+import io.protop.core.sync.FetchService;
+import io.protop.core.sync.status.SyncStatus;
+import io.reactivex.Observable;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+@Command(name = "fetch",
+        description = "Retrieve dependencies into the system-wide cache, without syncing a project. " +
+                "Without any arguments, fetches the dependencies of the project in the current directory.")
+public class Fetch implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(Fetch.class);
+
+    private static final String AT = "@";
+
+    @ParentCommand
+    private ProtopCli protop;
+
+    @Parameters(arity = "0..*",
+            paramLabel = "<org/project@revision>",
+            description = "Dependencies to fetch, e.g. org/project@1.2.0 or org/project@gh:org/project.")
+    private List<String> coordinates;
+
+    @Option(names = {"--manifest"},
+            description = "Fetch the dependencies of this protop.json (or of the project in this directory).",
+            required = false)
+    private List<Path> manifests;
+
+    @Option(names = {"--lockfile"},
+            description = "Fetch exactly the dependencies recorded in this protop.lock (or in that of the " +
+                    "project in this directory).",
+            required = false)
+    private List<Path> lockfiles;
+
+    @Option(names = {"-r", "--registry"},
+            description = "Registry URI",
+            required = false,
+            arity = "0..1")
+    private String registry;
+
+    @Option(names = {"-g", "--git-refresh"},
+            description = "Refresh Git projects sources.",
+            required = false,
+            arity = "0..1")
+    private Boolean refreshGitSources;
+
+    @Option(names = {"-j", "--jobs"},
+            description = "Maximum number of concurrent registry requests.",
+            required = false,
+            arity = "1")
+    private Integer jobs;
+
+    @Override
+    public void run() {
+        Logs.enableIf(protop.isDebugMode());
+        new ExceptionHandler().run(() -> {
+            Path location = Path.of(".").toAbsolutePath();
+
+            RuntimeConfiguration cliRc = RuntimeConfiguration.builder()
+                    .repositoryUrl(registry)
+                    .refreshGitSources(refreshGitSources)
+                    .syncJobs(jobs)
+                    .build();
+            boolean inProject = Files.isRegularFile(location.resolve(Manifest.PROTOP_JSON));
+            Context context = inProject ? Context.from(location, cliRc) : Context.from(cliRc);
+
+            StorageService storageService = new StorageService();
+            GrpcService grpcService = new GrpcService();
+            AuthService authService = new AuthService(storageService, grpcService, context);
+            FetchService fetchService = new FetchService(authService, storageService, context, grpcService);
+
+            // Each manifest and lockfile is its own graph, resolved just as a sync of that project would resolve it.
+            List<Observable<SyncStatus>> fetches = new ArrayList<>();
+            for (Path lockfilePath : Optional.ofNullable(lockfiles).orElseGet(Collections::emptyList)) {
+                Path directory = directoryOf(lockfilePath);
+                Lockfile lockfile = Lockfile.from(directory)
+                        .orElseThrow(LockfileNotFound::new);
+                fetches.add(fetchService.fetch(directory.resolve(Lockfile.PROTOP_LOCK).toString(), lockfile));
+            }
+            for (Path manifestPath : Optional.ofNullable(manifests).orElseGet(Collections::emptyList)) {
+                Path directory = directoryOf(manifestPath);
+                Manifest manifest = Manifest.from(directory)
+                        .orElseThrow(ManifestNotFound::new);
+                fetches.add(fetchService.fetch(directory.resolve(Manifest.PROTOP_JSON).toString(),
+                        dependenciesOf(manifest)));
+            }
+            if (Objects.nonNull(coordinates) && !coordinates.isEmpty()) {
+                fetches.add(fetchService.fetch(String.join(", ", coordinates), parse(coordinates)));
+            }
+            if (fetches.isEmpty()) {
+                fetches.add(fetchCurrentProject(fetchService, location, context));
+            }
+
+            // The graphs are fetched at the same time; versions they share are still only retrieved once.
+            Observable.merge(fetches)
+                    .doOnComplete(this::handleSuccess)
+                    .doOnNext(this::handleNextStatus)
+                    .blockingSubscribe();
+        });
+    }
+
+    /**
+     * The current project's lockfile, as long as it is up to date, or else its manifest.
+     */
+    private Observable<SyncStatus> fetchCurrentProject(FetchService fetchService, Path location, Context context) {
+        if (Objects.isNull(context.getManifest())) {
+            throw new ManifestNotFound();
+        }
+        Map<PackageId, RevisionSource> dependencies = dependenciesOf(context.getManifest());
+        Optional<Lockfile> lockfile = Lockfile.from(location)
+                .filter(candidate -> candidate.isUpToDate(dependencies));
+        return lockfile.isPresent()
+                ? fetchService.fetch(Lockfile.PROTOP_LOCK, lockfile.get())
+                : fetchService.fetch(Manifest.PROTOP_JSON, dependencies);
+    }
+
+    private static Path directoryOf(Path path) {
+        Path absolute = path.toAbsolutePath();
+        return Files.isDirectory(absolute) ? absolute : absolute.getParent();
+    }
+
+    private static Map<PackageId, RevisionSource> dependenciesOf(Manifest manifest) {
+        return Optional.ofNullable(manifest.getDependencies())
+                .orElseGet(DependencyMap::new)
+                .getValues();
+    }
+
+    private static Map<PackageId, RevisionSource> parse(List<String> coordinates) {
+        Map<PackageId, RevisionSource> dependencies = new HashMap<>();
+        for (String coordinate : coordinates) {
+            int at = coordinate.indexOf(AT);
+            if (at < 0) {
+                throw new InvalidRevision(String.format(
+                        "Expected <org/project@revision>, but got %s.", coordinate));
+            }
+            dependencies.put(PackageId.from(coordinate.substring(0, at)),
+                    RevisionUtils.fromString(coordinate.substring(at + 1)));
+        }
+        return dependencies;
+    }
+
+    private void handleNextStatus(SyncStatus status) {
+        logger.always(status.getMessage());
+    }
+
+    private void handleSuccess() {
+        logger.always("Done fetching.");
+    }
+}
@@ -28,6 +28,8 @@ import picocli.CommandLine.Option;
                 Unlink.class,
                 Links.class,
                 Sync.class,
+                Fetch.class,
+                Serve.class,
                 Cache.class
         },
         description = "...")
@@ -0,0 +1,69 @@
+package io.protop.cli;
+
+import io.grpc.Server;
+import io.protop.cli.errors.ExceptionHandler;
+import io.protop.core.Context;
+import io.protop.core.RuntimeConfiguration;
+import io.protop.core.auth.AuthService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.logs.Logger;
+import io.protop.core.logs.Logs;
+import io.protop.core.proxy.ProxyService;
+import io.protop.core.storage.StorageService;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+@Command(name = "serve",
+        description = "Serve a registry.")
+public class Serve implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(Serve.class);
+
+    @ParentCommand
+    private ProtopCli protop;
+
+    @Option(names = {"--proxy"},
+            description = "Serve a pull-through caching proxy of the registry, from the system-wide cache.",
+            required = true)
+    private boolean proxy;
+
+    @Option(names = {"-p", "--port"},
+            description = "Port to serve on.",
+            required = false,
+            defaultValue = "7000")
+    private int port;
+
+    @Option(names = {"--open"},
+            description = "Serve anyone, rather than only clients the registry accepts the token of.",
+            required = false)
+    private boolean open;
+
+    @Option(names = {"-r", "--registry"},
+            description = "URI of the registry to proxy.",
+            required = false,
+            arity = "0..1")
+    private String registry;
+
+    @Override
+    public void run() {
+        Logs.enableIf(protop.isDebugMode());
+        new ExceptionHandler().run(() -> {
+            RuntimeConfiguration cliRc = RuntimeConfiguration.builder()
+                    .repositoryUrl(registry)
+                    .build();
+            Context context = Context.from(cliRc);
+
+            StorageService storageService = new StorageService();
+            GrpcService grpcService = new GrpcService();
+            AuthService authService = new AuthService(storageService, grpcService, context);
+            ProxyService proxyService = new ProxyService(authService, storageService, context, grpcService);
+
+            Server server = proxyService.start(port, open);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+            logger.always(String.format("Proxying %s on port %d.",
+                    context.getRc().getSyncRepositoryUrl(), server.getPort()));
+            server.awaitTermination();
+        });
+    }
+}
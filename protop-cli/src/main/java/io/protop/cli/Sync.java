@@ -34,6 +34,13 @@ public class Sync implements Runnable {
             defaultValue = "false")
     private Boolean includeLinkedDependencies;
 
+    @Option(names = {"--frozen"},
+            description = "Sync exactly the dependencies recorded in protop.lock, without resolving them again.",
+            required = false,
+            arity = "0..1",
+            defaultValue = "false")
+    private Boolean frozen;
+
     @Option(names = {"-r", "--registry"},
             description = "Registry URI",
             required = false,
@@ -48,6 +55,18 @@ public class Sync implements Runnable {
             defaultValue = "")
     private Boolean refreshGitSources;
 
+    @Option(names = {"--offline"},
+            description = "Sync only from the system-wide cache and links, without any network access.",
+            required = false,
+            arity = "0..1")
+    private Boolean offline;
+
+    @Option(names = {"-j", "--jobs"},
+            description = "Maximum number of concurrent registry requests.",
+            required = false,
+            arity = "1")
+    private Integer jobs;
+
     @Override
     public void run() {
         Logs.enableIf(protop.isDebugMode());
@@ -57,6 +76,8 @@ public class Sync implements Runnable {
             RuntimeConfiguration cliRc = RuntimeConfiguration.builder()
                     .repositoryUrl(Optional.ofNullable(registry).orElse(null))
                     .refreshGitSources(refreshGitSources)
+                    .syncJobs(jobs)
+                    .offline(offline)
                     .build();
             Context context = Context.from(location, cliRc);
 
@@ -65,6 +86,7 @@ public class Sync implements Runnable {
             AuthService authService = new AuthService(storageService, grpcService, context);
             DependencyResolutionConfiguration resolutionContext = DependencyResolutionConfiguration.builder()
                     .includesLinkedDependencies(includeLinkedDependencies)
+                    .frozen(frozen)
                     .build();
             SyncService syncService = new SyncService(authService, storageService, context, grpcService);
 
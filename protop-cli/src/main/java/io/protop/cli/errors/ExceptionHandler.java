@@ -1,10 +1,13 @@
 package io.protop.cli.errors;
 
 import io.protop.core.auth.AuthenticationFailed;
+import io.protop.core.cache.IntegrityMismatch;
 import io.protop.core.error.PackageNotFound;
 import io.protop.core.error.ProjectAlreadyCreated;
 import io.protop.core.error.ServiceException;
 import io.protop.core.error.ServiceExceptionConsumer;
+import io.protop.core.lock.LockfileNotFound;
+import io.protop.core.lock.LockfileOutOfDate;
 import io.protop.core.logs.Logger;
 import io.protop.core.logs.Logs;
 import io.protop.core.manifest.InvalidDependencyName;
@@ -122,4 +125,19 @@ public final class ExceptionHandler implements ServiceExceptionConsumer {
     public void consume(InvalidRevision invalidRevision) {
         logger.always(invalidRevision.getMessage());
     }
+
+    @Override
+    public void consume(LockfileNotFound lockfileNotFound) {
+        logger.always(lockfileNotFound.getMessage());
+    }
+
+    @Override
+    public void consume(LockfileOutOfDate lockfileOutOfDate) {
+        logger.always(lockfileOutOfDate.getMessage());
+    }
+
+    @Override
+    public void consume(IntegrityMismatch integrityMismatch) {
+        logger.always(integrityMismatch.getMessage());
+    }
 }
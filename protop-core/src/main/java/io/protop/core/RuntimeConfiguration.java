@@ -1,7 +1,10 @@
 package io.protop.core;
 
 import com.google.common.base.Strings;
+import io.protop.core.git.GitFetchMode;
 import io.protop.core.logs.Logger;
+import io.protop.core.manifest.PackageId;
+import io.protop.utils.UnitUtils;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -15,6 +18,9 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.InvalidParameterException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
@@ -27,6 +33,9 @@ public class RuntimeConfiguration {
     private static final Logger logger = Logger.getLogger(RuntimeConfiguration.class);
 
     private static final String PROTOP_RC = ".protoprc";
+    private static final String GIT_FETCH = "git.fetch";
+    private static final String GIT_ARCHIVE = "git.archive";
+    private static final String SYNC_REGISTRY = "sync.registry";
 
     @Nullable
     private final String repositoryUrl;
@@ -34,12 +43,63 @@ public class RuntimeConfiguration {
     @Nullable
     private final String publishRepositoryUrl;
 
+    // May be a comma-separated list of mirrors, in order of preference.
     @Nullable
     private final String syncRepositoryUrl;
 
+    // Registries (or lists of mirrors, like the above) for the packages of particular organizations.
+    @Nullable
+    private final Map<String, String> syncRepositoryUrls;
+
+    // How long a registry may take to answer a metadata request, or to send the next chunk of a tarball, before the
+    // request is abandoned.
+    @Nullable
+    private final Duration syncTimeout;
+
+    // How long to wait for a registry before asking the next mirror as well; by default, the 95th percentile of the
+    // latencies observed so far.
+    @Nullable
+    private final Duration syncHedgeDelay;
+
     @Nullable
     private final Boolean refreshGitSources;
 
+    // How long a git ref is trusted before it is checked against the remote again.
+    @Nullable
+    private final Duration gitRefreshTtl;
+
+    @Nullable
+    private final Integer syncJobs;
+
+    // Sync only from the caches and links, without any network access.
+    @Nullable
+    private final Boolean offline;
+
+    @Nullable
+    private final Integer gitJobs;
+
+    @Nullable
+    private final GitFetchMode gitFetchMode;
+
+    // Overrides of the git fetch mode for particular dependencies.
+    @Nullable
+    private final Map<PackageId, GitFetchMode> gitFetchModes;
+
+    // Overrides of the base URLs of git platforms' archives, keyed by the platform's prefix (i.e. "gh").
+    @Nullable
+    private final Map<String, String> gitArchiveUrls;
+
+    // Limits on the system-wide cache, enforced by garbage collection.
+    @Nullable
+    private final Long cacheMaxSize;
+
+    @Nullable
+    private final Duration cacheMaxAge;
+
+    // Whether to collect garbage in the cache after every sync.
+    @Nullable
+    private final Boolean cacheAutoGc;
+
     @Nullable
     private final String username;
 
@@ -48,6 +108,19 @@ public class RuntimeConfiguration {
 
     public static RuntimeConfiguration empty() {
         return new RuntimeConfiguration(
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
                 null,
                 null,
                 null,
@@ -81,13 +154,131 @@ public class RuntimeConfiguration {
         return RuntimeConfiguration.builder()
                 .repositoryUrl(props.getProperty("registry"))
                 .publishRepositoryUrl(props.getProperty("publish.registry"))
-                .syncRepositoryUrl(props.getProperty("sync.registry"))
+                .syncRepositoryUrl(props.getProperty(SYNC_REGISTRY))
+                .syncRepositoryUrls(parseSyncRepositoryUrls(props))
+                .syncTimeout(parseDuration(props.getProperty("sync.timeout")))
+                .syncHedgeDelay(parseDuration(props.getProperty("sync.hedge.delay")))
                 .refreshGitSources(Boolean.valueOf(props.getProperty("git.refresh")))
+                .gitRefreshTtl(parseDuration(props.getProperty("git.refresh.ttl")))
+                .syncJobs(parseInteger(props.getProperty("sync.jobs")))
+                .offline(parseBoolean(props.getProperty("sync.offline")))
+                .gitJobs(parseInteger(props.getProperty("git.jobs")))
+                .gitFetchMode(parseGitFetchMode(props.getProperty(GIT_FETCH)))
+                .gitFetchModes(parseGitFetchModes(props))
+                .gitArchiveUrls(parseGitArchiveUrls(props))
+                .cacheMaxSize(parseSize(props.getProperty("cache.max.size")))
+                .cacheMaxAge(parseDuration(props.getProperty("cache.max.age")))
+                .cacheAutoGc(parseBoolean(props.getProperty("cache.gc.auto")))
                 .username(props.getProperty("username"))
                 .password(props.getProperty("password"))
                 .build();
     }
 
+    @Nullable
+    private static Boolean parseBoolean(@Nullable String value) {
+        return Strings.isNullOrEmpty(value) ? null : Boolean.valueOf(value.trim());
+    }
+
+    @Nullable
+    private static Integer parseInteger(@Nullable String value) {
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            String message = String.format("Invalid number in .protoprc configuration: %s.", value);
+            logger.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    @Nullable
+    private static Duration parseDuration(@Nullable String value) {
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+
+        try {
+            return UnitUtils.parseDuration(value);
+        } catch (IllegalArgumentException e) {
+            String message = String.format("Invalid duration in .protoprc configuration: %s.", value);
+            logger.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    @Nullable
+    private static Long parseSize(@Nullable String value) {
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+
+        try {
+            return UnitUtils.parseSize(value);
+        } catch (IllegalArgumentException e) {
+            String message = String.format("Invalid size in .protoprc configuration: %s.", value);
+            logger.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    @Nullable
+    private static GitFetchMode parseGitFetchMode(@Nullable String value) {
+        if (Strings.isNullOrEmpty(value)) {
+            return null;
+        }
+
+        try {
+            return GitFetchMode.fromString(value);
+        } catch (IllegalArgumentException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Collect the per-dependency overrides, i.e. "git.fetch.org/project=full".
+     */
+    @Nullable
+    private static Map<PackageId, GitFetchMode> parseGitFetchModes(Properties props) {
+        String prefix = GIT_FETCH + ".";
+        Map<PackageId, GitFetchMode> modes = new HashMap<>();
+        props.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(prefix))
+                .forEach(name -> modes.put(
+                        PackageId.from(name.substring(prefix.length())),
+                        parseGitFetchMode(props.getProperty(name))));
+        return modes.isEmpty() ? null : modes;
+    }
+
+    /**
+     * Collect the archive base URLs, i.e. "git.archive.gh=http://localhost:8080".
+     */
+    @Nullable
+    private static Map<String, String> parseGitArchiveUrls(Properties props) {
+        String prefix = GIT_ARCHIVE + ".";
+        Map<String, String> urls = new HashMap<>();
+        props.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(prefix))
+                .forEach(name -> urls.put(name.substring(prefix.length()), props.getProperty(name).trim()));
+        return urls.isEmpty() ? null : urls;
+    }
+
+    /**
+     * Collect the per-organization registries, i.e. "sync.registry.org=https://a.example.com,https://b.example.com".
+     */
+    @Nullable
+    private static Map<String, String> parseSyncRepositoryUrls(Properties props) {
+        String prefix = SYNC_REGISTRY + ".";
+        Map<String, String> urls = new HashMap<>();
+        props.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(prefix))
+                .forEach(name -> urls.put(name.substring(prefix.length()), props.getProperty(name).trim()));
+        return urls.isEmpty() ? null : urls;
+    }
+
     public RuntimeConfiguration mergeOver(@NotNull RuntimeConfiguration other) {
         if (Objects.isNull(other)) {
             throw new InvalidParameterException("Cannot be null");
@@ -97,7 +288,20 @@ public class RuntimeConfiguration {
                 .repositoryUrl(resolveAsap(getRepositoryUrl(), other.getRepositoryUrl()))
                 .publishRepositoryUrl(resolveAsap(getPublishRepositoryUrl(), other.getPublishRepositoryUrl()))
                 .syncRepositoryUrl(resolveAsap(getSyncRepositoryUrl(), other.getSyncRepositoryUrl()))
+                .syncRepositoryUrls(resolveAsap(getSyncRepositoryUrls(), other.getSyncRepositoryUrls()))
+                .syncTimeout(resolveAsap(getSyncTimeout(), other.getSyncTimeout()))
+                .syncHedgeDelay(resolveAsap(getSyncHedgeDelay(), other.getSyncHedgeDelay()))
                 .refreshGitSources(resolveAsap(getRefreshGitSources(), other.getRefreshGitSources()))
+                .gitRefreshTtl(resolveAsap(getGitRefreshTtl(), other.getGitRefreshTtl()))
+                .syncJobs(resolveAsap(getSyncJobs(), other.getSyncJobs()))
+                .offline(resolveAsap(getOffline(), other.getOffline()))
+                .gitJobs(resolveAsap(getGitJobs(), other.getGitJobs()))
+                .gitFetchMode(resolveAsap(getGitFetchMode(), other.getGitFetchMode()))
+                .gitFetchModes(resolveAsap(getGitFetchModes(), other.getGitFetchModes()))
+                .gitArchiveUrls(resolveAsap(getGitArchiveUrls(), other.getGitArchiveUrls()))
+                .cacheMaxSize(resolveAsap(getCacheMaxSize(), other.getCacheMaxSize()))
+                .cacheMaxAge(resolveAsap(getCacheMaxAge(), other.getCacheMaxAge()))
+                .cacheAutoGc(resolveAsap(getCacheAutoGc(), other.getCacheAutoGc()))
                 .username(resolveAsap(getUsername(), other.getUsername()))
                 .password(resolveAsap(getPassword(), other.getPassword()))
                 .build();
@@ -0,0 +1,422 @@
+package io.protop.core.cache;
+
+import io.protop.core.git.GitFetcher;
+import io.protop.core.lock.Lockfile;
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.GitSource;
+import io.protop.core.manifest.revision.InvalidVersionString;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.Version;
+import io.protop.core.storage.Storage;
+import io.protop.core.storage.StorageLock;
+import io.protop.core.storage.StorageUtils;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Evicts entries from the system-wide caches: versions of registry packages, git worktrees and git repositories.
+ *
+ * The modification time of an entry is when it was last used (see {@link StorageUtils#touch}). Entries that weren't
+ * used for longer than the maximum age are evicted, and then the least recently used ones until the caches fit in
+ * the maximum size, but never the retained ones (i.e. those a lockfile refers to), nor those that are locked (i.e.
+ * by a sync that is caching or fetching them right now). Evicting an entry only renames it into the trash, which is
+ * quick; the trash is emptied afterwards, along with the blobs nothing links to anymore.
+ */
+public class CacheCollector {
+
+    private static final Logger logger = Logger.getLogger(CacheCollector.class);
+
+    // Anything temporary that is older than this was left behind, i.e. by a sync that was interrupted.
+    private static final Duration STALE = Duration.ofDays(1);
+
+    private final CacheIndex index;
+
+    CacheCollector(CacheIndex index) {
+        this.index = index;
+    }
+
+    @Getter
+    @Builder
+    public static class Policy {
+
+        // In bytes, counting files that entries share (through the blob store) once for each of them.
+        @Nullable
+        private final Long maxSize;
+
+        @Nullable
+        private final Duration maxAge;
+
+        // Entries that are never evicted.
+        @Nullable
+        private final Set<Path> retained;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+
+        private final int evicted;
+
+        private final long evictedSize;
+    }
+
+    private static class Entry {
+
+        private final Path path;
+        private final Instant lastUsed;
+
+        // Only for versions of registry packages.
+        @Nullable
+        private final PackageId packageId;
+        @Nullable
+        private final Version version;
+
+        // Held by whoever writes the entry; worktrees don't have one of their own.
+        @Nullable
+        private final Path lockPath;
+
+        private long size = -1;
+
+        private Entry(Path path,
+                      Instant lastUsed,
+                      @Nullable PackageId packageId,
+                      @Nullable Version version,
+                      @Nullable Path lockPath) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.packageId = packageId;
+            this.version = version;
+            this.lockPath = lockPath;
+        }
+
+        private long getSize() {
+            if (size < 0) {
+                size = sizeOf(path);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @return the cache entries that the dependencies in the lockfile are synced from.
+     */
+    public static Set<Path> getEntriesOf(Lockfile lockfile) {
+        Path cache = Storage.pathOf(Storage.GlobalDirectory.CACHE);
+        Path gitCache = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE);
+        Set<Path> entries = new HashSet<>();
+        lockfile.getDependencies().forEach((packageId, lockedDependency) -> {
+            RevisionSource revisionSource = lockedDependency.getRevisionSource();
+            if (revisionSource instanceof Version) {
+                toRealPath(cache.resolve(packageId.getOrganization())
+                        .resolve(packageId.getProject())
+                        .resolve(revisionSource.toString()))
+                        .ifPresent(entries::add);
+            } else if (revisionSource instanceof GitSource) {
+                toRealPath(gitCache.resolve(GitFetcher.REPOSITORIES)
+                        .resolve(((GitSource) revisionSource).getUrlEncoded()))
+                        .ifPresent(entries::add);
+                Optional.ofNullable(lockedDependency.getCommit()).ifPresent(commit -> {
+                    Path commits = gitCache.resolve(GitFetcher.COMMITS);
+                    toRealPath(commits.resolve(commit)).ifPresent(entries::add);
+                    toRealPath(commits.resolve(commit + GitFetcher.FULL_SUFFIX)).ifPresent(entries::add);
+                });
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @return the cache entries that a project's dependencies (.protop/deps/org/project) are linked to.
+     */
+    public static Set<Path> getEntriesLinkedFrom(Path dependenciesDir) throws IOException {
+        Set<Path> entries = new HashSet<>();
+        if (!Files.isDirectory(dependenciesDir)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> orgs = Files.newDirectoryStream(dependenciesDir, Files::isDirectory)) {
+            for (Path org : orgs) {
+                try (DirectoryStream<Path> projects = Files.newDirectoryStream(org)) {
+                    projects.forEach(project -> toRealPath(project).ifPresent(entries::add));
+                }
+            }
+        }
+        return entries;
+    }
+
+    public Result collect(Policy policy) throws IOException {
+        Instant now = Instant.now();
+        Set<Path> retained = Optional.ofNullable(policy.getRetained()).orElseGet(Collections::emptySet);
+        Path trash = Storage.pathOf(Storage.GlobalDirectory.TRASH);
+
+        List<Entry> entries = new ArrayList<>();
+        List<Path> stale = new ArrayList<>();
+        listRegistryEntries(entries, stale);
+        listGitEntries(entries, stale);
+        listStale(Storage.pathOf(Storage.GlobalDirectory.TEMP_PUBLICATION_CACHE), stale);
+        listStale(Storage.pathOf(Storage.GlobalDirectory.BLOBS).resolve(".tmp"), stale);
+        for (Path path : stale) {
+            moveToTrash(path, trash);
+        }
+
+        entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+        long size = Objects.isNull(policy.getMaxSize())
+                ? 0
+                : entries.stream().mapToLong(Entry::getSize).sum();
+
+        int evicted = 0;
+        long evictedSize = 0;
+        Map<PackageId, Set<Version>> evictedVersions = new HashMap<>();
+        for (Entry entry : entries) {
+            boolean expired = Objects.nonNull(policy.getMaxAge())
+                    && entry.lastUsed.isBefore(now.minus(policy.getMaxAge()));
+            boolean oversized = Objects.nonNull(policy.getMaxSize()) && size > policy.getMaxSize();
+            if (!expired && !oversized) {
+                // Entries are in the order they were last used, so the rest are newer still.
+                break;
+            }
+            if (retained.contains(entry.path)) {
+                continue;
+            }
+
+            long entrySize = entry.getSize();
+            if (evict(entry, trash)) {
+                evicted++;
+                evictedSize += entrySize;
+                size -= entrySize;
+                if (Objects.nonNull(entry.packageId)) {
+                    evictedVersions.computeIfAbsent(entry.packageId, p -> new HashSet<>()).add(entry.version);
+                }
+            }
+        }
+
+        if (!evictedVersions.isEmpty()) {
+            index.forget(evictedVersions);
+        }
+        removeBrokenCommitLinks();
+        return new Result(evicted, evictedSize);
+    }
+
+    /**
+     * Delete everything in the trash, and then the blobs that nothing links to anymore.
+     */
+    public static void emptyTrash() throws IOException {
+        Path trash = Storage.pathOf(Storage.GlobalDirectory.TRASH);
+        boolean emptied = false;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(trash)) {
+            for (Path entry : entries) {
+                StorageUtils.deleteDirectory(entry);
+                emptied = true;
+            }
+        }
+        if (emptied) {
+            pruneBlobs();
+        }
+    }
+
+    private void listRegistryEntries(List<Entry> entries, List<Path> stale) throws IOException {
+        Path cache = Storage.pathOf(Storage.GlobalDirectory.CACHE);
+        try (DirectoryStream<Path> orgs = Files.newDirectoryStream(cache,
+                org -> Files.isDirectory(org) && !org.getFileName().toString().startsWith("."))) {
+            for (Path org : orgs) {
+                try (DirectoryStream<Path> projects = Files.newDirectoryStream(org, Files::isDirectory)) {
+                    for (Path project : projects) {
+                        try (DirectoryStream<Path> versions = Files.newDirectoryStream(project)) {
+                            for (Path versionPath : versions) {
+                                String name = versionPath.getFileName().toString();
+                                if (name.startsWith(".")) {
+                                    addIfStale(versionPath, stale);
+                                    continue;
+                                }
+                                try {
+                                    PackageId packageId = new PackageId(org.getFileName().toString(),
+                                            project.getFileName().toString());
+                                    Version version = new Version(name);
+                                    entries.add(new Entry(versionPath.toRealPath(), lastUsed(versionPath),
+                                            packageId, version, CacheService.getLockPath(packageId, version)));
+                                } catch (InvalidVersionString e) {
+                                    logger.warn("Not a valid revision; skipping {}.", versionPath);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void listGitEntries(List<Entry> entries, List<Path> stale) throws IOException {
+        Path gitCache = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE);
+        for (String directory : List.of(GitFetcher.REPOSITORIES, GitFetcher.TREES)) {
+            Path parent = gitCache.resolve(directory);
+            if (!Files.isDirectory(parent)) {
+                continue;
+            }
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(parent)) {
+                for (Path child : children) {
+                    if (child.getFileName().toString().startsWith(".")) {
+                        addIfStale(child, stale);
+                    } else {
+                        Path lockPath = directory.equals(GitFetcher.REPOSITORIES)
+                                ? GitFetcher.getLockPath(child.getFileName().toString())
+                                : null;
+                        entries.add(new Entry(child.toRealPath(), lastUsed(child), null, null, lockPath));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void listStale(Path directory, List<Path> stale) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            children.forEach(child -> addIfStale(child, stale));
+        }
+    }
+
+    private static void addIfStale(Path path, List<Path> stale) {
+        if (lastUsed(path).isBefore(Instant.now().minus(STALE))) {
+            stale.add(path);
+        }
+    }
+
+    /**
+     * Links to worktrees that were evicted are left behind, so those are removed too.
+     */
+    private static void removeBrokenCommitLinks() throws IOException {
+        Path commits = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE).resolve(GitFetcher.COMMITS);
+        if (!Files.isDirectory(commits)) {
+            return;
+        }
+        try (DirectoryStream<Path> links = Files.newDirectoryStream(commits)) {
+            for (Path link : links) {
+                if (!Files.exists(link)) {
+                    Files.deleteIfExists(link);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blobs with a single link are only in the store. Blobs used recently are left alone, since they may be about to
+     * be linked; the store touches a blob before it links anything to it, and writes it again if it was pruned.
+     */
+    private static void pruneBlobs() throws IOException {
+        Path blobs = Storage.pathOf(Storage.GlobalDirectory.BLOBS);
+        Instant cutoff = Instant.now().minus(STALE);
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(blobs,
+                shard -> Files.isDirectory(shard) && !shard.getFileName().toString().startsWith("."))) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> shardBlobs = Files.newDirectoryStream(shard)) {
+                    for (Path blob : shardBlobs) {
+                        int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+                        if (links <= 1 && lastUsed(blob).isBefore(cutoff)) {
+                            Files.deleteIfExists(blob);
+                        }
+                    }
+                }
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Links can't be counted here, so there is no telling which blobs are unused.
+            logger.info("Not pruning blobs: {}.", e.getMessage());
+        }
+    }
+
+    /**
+     * Move the entry to the trash unless someone holds its lock; it is evicted another time if it still should be.
+     * @return whether the entry was moved.
+     */
+    private static boolean evict(Entry entry, Path trash) {
+        if (Objects.isNull(entry.lockPath)) {
+            return moveToTrash(entry.path, trash);
+        }
+
+        Optional<StorageLock> lock;
+        try {
+            lock = StorageLock.tryAcquire(entry.lockPath);
+        } catch (IOException e) {
+            logger.warn("Failed to lock {}; not evicting it.", entry.path);
+            return false;
+        }
+        if (lock.isEmpty()) {
+            logger.info("{} is in use; not evicting it.", entry.path);
+            return false;
+        }
+        try {
+            return moveToTrash(entry.path, trash);
+        } finally {
+            try {
+                lock.get().close();
+            } catch (IOException e) {
+                logger.warn("Failed to release the lock of {}.", entry.path);
+            }
+        }
+    }
+
+    /**
+     * @return whether the path was moved; it is left where it is if it can't be (i.e. if it was evicted already).
+     */
+    private static boolean moveToTrash(Path path, Path trash) {
+        try {
+            // Moving a directory elsewhere updates it, and maybe its parent too (if it was locked by an older
+            // version of protop).
+            path.toFile().setWritable(true);
+            Path parent = path.getParent();
+            if (!Files.isWritable(parent)) {
+                parent.toFile().setWritable(true);
+            }
+            Files.move(path, trash.resolve(UUID.randomUUID().toString()), StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Evicted {}.", path);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to evict {}.", path);
+            return false;
+        }
+    }
+
+    private static Instant lastUsed(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.mapToLong(path -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    return attributes.isRegularFile() ? attributes.size() : 0;
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Optional<Path> toRealPath(Path path) {
+        try {
+            return Optional.of(path.toRealPath());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
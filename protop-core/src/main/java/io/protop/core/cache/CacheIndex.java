@@ -0,0 +1,603 @@
+package io.protop.core.cache;
+
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.DependencyMap;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.RevisionUtils;
+import io.protop.core.manifest.revision.Version;
+import io.protop.core.storage.Storage;
+import io.protop.core.storage.StorageLock;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * An index of the registry packages in the cache (package → versions → path, digest and dependencies), so that a
+ * sync only reads what it needs for its own graph instead of walking and parsing the whole cache.
+ *
+ * The index is a binary file next to the cache, plus a journal of the changes made since it was last written. The
+ * index is memory-mapped when loaded; only the table of packages is decoded up front, and each package's versions
+ * are decoded (and the journal's changes to them replayed) the first time they are asked for.
+ *
+ * Each change (i.e. a version that was cached) is appended to the journal, so it costs the same no matter how big
+ * the cache is. Once the journal has grown long enough, it is folded into a new index, which is written to a
+ * temporary file that then replaces the index in one step. A missing index is rebuilt from the cache directory, and
+ * so is one that can't be read; it is never written over with whatever could be read of it.
+ *
+ * Layout (big-endian; strings are an int length followed by UTF-8 bytes):
+ * <pre>
+ *   index:    magic, format version, package count,
+ *             (package id, block offset) per package,
+ *             then a block per package: version count, then a version per version
+ *   version:  version, path relative to the cache, integrity or "",
+ *             dependency count, (package id, revision source) per dependency,
+ *             file count, (path, hex SHA-256 digest) per file
+ *   journal:  journal magic, format version,
+ *             then (length, CRC-32, package id, change) per change, where a change is either
+ *             RECORDED and a version, or FORGOTTEN, a version count and the versions
+ * </pre>
+ */
+public class CacheIndex {
+
+    private static final Logger logger = Logger.getLogger(CacheIndex.class);
+
+    public static final String CACHE_INDEX = "_cache.idx";
+    private static final String JOURNAL = CACHE_INDEX + ".journal";
+    private static final String LOCK = CACHE_INDEX + ".lock";
+    private static final String TEMPORARY = CACHE_INDEX + ".tmp";
+
+    private static final int MAGIC = 0x50504958; // "PPIX"
+    private static final int JOURNAL_MAGIC = 0x50504a4c; // "PPJL"
+    private static final int FORMAT_VERSION = 2;
+    private static final int JOURNAL_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final byte RECORDED = 1;
+    private static final byte FORGOTTEN = 2;
+
+    // Once the journal is this long, it is folded into the index.
+    private static final long MAX_JOURNAL_SIZE = 1 << 20;
+
+    private final Path indexPath;
+    private final Path cacheDir;
+
+    // Nothing is mapped if the index didn't exist yet.
+    @Nullable
+    private final ByteBuffer mapped;
+    private final Map<PackageId, Integer> blockOffsets;
+
+    // The journal's changes to each package (after its package id), in the order they were made.
+    private final Map<PackageId, List<ByteBuffer>> journaled;
+
+    // Packages decoded (or recorded) so far.
+    private final ConcurrentMap<PackageId, Map<Version, Entry>> packages = new ConcurrentHashMap<>();
+
+    private CacheIndex(Path indexPath,
+                       Path cacheDir,
+                       @Nullable ByteBuffer mapped,
+                       Map<PackageId, Integer> blockOffsets,
+                       Map<PackageId, List<ByteBuffer>> journaled) {
+        this.indexPath = indexPath;
+        this.cacheDir = cacheDir;
+        this.mapped = mapped;
+        this.blockOffsets = blockOffsets;
+        this.journaled = journaled;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+
+        private final Path path;
+
+        // Only known for packages that were indexed as they were cached.
+        @Nullable
+        private final String integrity;
+
+        private final Map<PackageId, RevisionSource> dependencies;
+
+        // Digests of the files (relative path with "/" separators → hex SHA-256), so that the content can be
+        // checked without reading it. Only known for packages that were indexed as they were cached.
+        private final Map<String, String> files;
+
+        public Manifest toManifest(PackageId packageId, Version version) {
+            return Manifest.builder()
+                    .organization(packageId.getOrganization())
+                    .name(packageId.getProject())
+                    .version(version)
+                    .dependencies(new DependencyMap(new HashMap<>(dependencies)))
+                    .build();
+        }
+    }
+
+    /**
+     * Load the index of the cache, rebuilding it if it is missing or can't be read.
+     */
+    public static CacheIndex load() {
+        Path cacheDir = Storage.pathOf(Storage.GlobalDirectory.CACHE);
+        Path indexPath = Storage.getHomePath().resolve(CACHE_INDEX);
+        try {
+            repairJournal(indexPath);
+            return read(indexPath, cacheDir);
+        } catch (NoSuchFileException e) {
+            logger.info("Cache index not found; building it from the cache.");
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cache index could not be read; rebuilding it from the cache.", e);
+        }
+        return rebuild(indexPath, cacheDir);
+    }
+
+    /**
+     * @return the cached version of a package, if it is in the index and still in the cache.
+     */
+    public Optional<Entry> get(PackageId packageId, Version version) {
+        return Optional.ofNullable(getVersions(packageId).get(version))
+                .filter(entry -> Files.isDirectory(entry.getPath()));
+    }
+
+    public Map<Version, Entry> getVersions(PackageId packageId) {
+        // Packages that were decoded already are read without locking.
+        Map<Version, Entry> versions = packages.get(packageId);
+        if (Objects.isNull(versions)) {
+            versions = packages.computeIfAbsent(packageId, this::decodePackage);
+        }
+        return Collections.unmodifiableMap(versions);
+    }
+
+    /**
+     * Read a package's versions from the index on disk again, since another process may have cached some of them
+     * after the index was loaded.
+     */
+    public Map<Version, Entry> reload(PackageId packageId) {
+        try {
+            Map<Version, Entry> versions = read(indexPath, cacheDir).decodePackage(packageId);
+            packages.computeIfAbsent(packageId, this::decodePackage).putAll(versions);
+        } catch (NoSuchFileException e) {
+            // Nothing indexed yet.
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cache index could not be read again.", e);
+        }
+        return getVersions(packageId);
+    }
+
+    /**
+     * Add a newly cached version to the index, both here and on disk.
+     */
+    public void record(PackageId packageId, Version version, Entry entry) throws IOException {
+        packages.computeIfAbsent(packageId, this::decodePackage).put(version, entry);
+
+        ByteArrayOutputStream change = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(change);
+        writeString(output, packageId.toString());
+        output.writeByte(RECORDED);
+        writeVersion(output, version, entry, cacheDir);
+        output.flush();
+        append(List.of(change.toByteArray()));
+    }
+
+    /**
+     * Forget versions that were evicted from the cache, both here and on disk.
+     */
+    public void forget(Map<PackageId, Set<Version>> evicted) throws IOException {
+        List<byte[]> changes = new ArrayList<>();
+        for (Map.Entry<PackageId, Set<Version>> versions : evicted.entrySet()) {
+            packages.computeIfAbsent(versions.getKey(), this::decodePackage).keySet().removeAll(versions.getValue());
+
+            ByteArrayOutputStream change = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(change);
+            writeString(output, versions.getKey().toString());
+            output.writeByte(FORGOTTEN);
+            output.writeInt(versions.getValue().size());
+            for (Version version : versions.getValue()) {
+                writeString(output, version.toString());
+            }
+            output.flush();
+            changes.add(change.toByteArray());
+        }
+        append(changes);
+    }
+
+    /**
+     * Forget everything (i.e. after the cache has been cleaned).
+     */
+    public void clear() throws IOException {
+        packages.clear();
+        blockOffsets.clear();
+        journaled.clear();
+        try (StorageLock ignored = lock(indexPath)) {
+            write(indexPath, cacheDir, Collections.emptyMap());
+        }
+    }
+
+    private Map<Version, Entry> decodePackage(PackageId packageId) {
+        Map<Version, Entry> versions = new ConcurrentHashMap<>();
+        try {
+            versions.putAll(decodePackageOrFail(packageId));
+        } catch (RuntimeException e) {
+            // The package is treated as not cached; the index is rebuilt the next time the journal is folded in.
+            logger.warn("Skipping unreadable cache index entry for {}.", packageId);
+        }
+        return versions;
+    }
+
+    private Map<Version, Entry> decodePackageOrFail(PackageId packageId) {
+        Map<Version, Entry> versions = new HashMap<>();
+        Integer offset = blockOffsets.get(packageId);
+        if (Objects.nonNull(mapped) && Objects.nonNull(offset)) {
+            versions.putAll(decodeBlock(mapped.duplicate().position(offset), cacheDir));
+        }
+        for (ByteBuffer change : journaled.getOrDefault(packageId, Collections.emptyList())) {
+            replay(change.duplicate(), versions, cacheDir);
+        }
+        return versions;
+    }
+
+    private Map<PackageId, Map<Version, Entry>> decodeAllOrFail() {
+        Set<PackageId> packageIds = new HashSet<>(blockOffsets.keySet());
+        packageIds.addAll(journaled.keySet());
+        Map<PackageId, Map<Version, Entry>> all = new HashMap<>();
+        for (PackageId packageId : packageIds) {
+            Map<Version, Entry> versions = decodePackageOrFail(packageId);
+            if (!versions.isEmpty()) {
+                all.put(packageId, versions);
+            }
+        }
+        return all;
+    }
+
+    private static CacheIndex read(Path indexPath, Path cacheDir) throws IOException {
+        // The journal is read first: if the index is rewritten in between, the new one has all of its changes.
+        Map<PackageId, List<ByteBuffer>> journaled = readJournal(indexPath.resolveSibling(JOURNAL)).changes;
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unrecognized cache index format.");
+            }
+            int count = buffer.getInt();
+            Map<PackageId, Integer> blockOffsets = new ConcurrentHashMap<>();
+            for (int i = 0; i < count; i++) {
+                PackageId packageId = PackageId.from(readString(buffer));
+                int offset = buffer.getInt();
+                if (offset < 0 || offset >= buffer.limit()) {
+                    throw new IOException("Cache index is truncated.");
+                }
+                blockOffsets.put(packageId, offset);
+            }
+            return new CacheIndex(indexPath, cacheDir, buffer, blockOffsets, journaled);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Cache index is truncated.", e);
+        }
+    }
+
+    /**
+     * The changes in the journal, up to the last one that was written completely; one that is only partly there
+     * is either still being written, or its writer died. A change that was written but is damaged means the journal
+     * can't be trusted at all.
+     */
+    private static Journal readJournal(Path journalPath) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(journalPath);
+        } catch (NoSuchFileException e) {
+            return new Journal(new ConcurrentHashMap<>(), 0, 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Map<PackageId, List<ByteBuffer>> changes = new ConcurrentHashMap<>();
+        if (buffer.remaining() < JOURNAL_HEADER_SIZE) {
+            return new Journal(changes, 0, bytes.length);
+        }
+        if (buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Unrecognized cache index journal format.");
+        }
+        try {
+            while (buffer.remaining() >= 2 * Integer.BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0) {
+                    throw new IOException("Cache index journal is corrupt.");
+                }
+                if (length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                ByteBuffer change = buffer.slice().limit(length);
+                buffer.position(buffer.position() + length);
+
+                CRC32 crc = new CRC32();
+                crc.update(change.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Cache index journal is corrupt.");
+                }
+                PackageId packageId = PackageId.from(readString(change));
+                changes.computeIfAbsent(packageId, p -> new ArrayList<>()).add(change.slice());
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Cache index journal is corrupt.", e);
+        }
+        return new Journal(changes, buffer.position(), bytes.length);
+    }
+
+    /**
+     * Cut off a change that was only partly written when its writer died, so that the next one isn't appended to
+     * what's left of it.
+     */
+    private static void repairJournal(Path indexPath) throws IOException {
+        Path journalPath = indexPath.resolveSibling(JOURNAL);
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (StorageLock ignored = lock(indexPath)) {
+            Journal journal = readJournal(journalPath);
+            if (journal.length < journal.size) {
+                logger.warn("Discarding an incomplete change at the end of the cache index journal.");
+                try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                    channel.truncate(journal.length);
+                }
+            }
+        }
+    }
+
+    private static CacheIndex rebuild(Path indexPath, Path cacheDir) {
+        Map<PackageId, Map<Version, Entry>> all = scan();
+        try {
+            try (StorageLock ignored = lock(indexPath)) {
+                write(indexPath, cacheDir, all);
+            }
+            return read(indexPath, cacheDir);
+        } catch (IOException e) {
+            // The sync can still go ahead with an index that only lives in memory.
+            logger.warn("Failed to write the cache index.", e);
+            CacheIndex index = new CacheIndex(
+                    indexPath, cacheDir, null, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+            all.forEach((packageId, versions) -> index.packages.put(packageId, new ConcurrentHashMap<>(versions)));
+            return index;
+        }
+    }
+
+    /**
+     * Index whatever is in the cache directory, without the integrity and file digests, which are only known for
+     * packages that are indexed as they are cached.
+     */
+    private static Map<PackageId, Map<Version, Entry>> scan() {
+        Map<PackageId, Map<Version, Entry>> all = new HashMap<>();
+        ExternalDependencyCache.load().blockingGet().getProjects().forEach((packageId, versions) ->
+                versions.forEach((version, path) -> Manifest.from(path).ifPresentOrElse(
+                        manifest -> all.computeIfAbsent(packageId, p -> new HashMap<>()).put(version, new Entry(
+                                path,
+                                null,
+                                Optional.ofNullable(manifest.getDependencies())
+                                        .map(DependencyMap::getValues)
+                                        .orElseGet(HashMap::new),
+                                Collections.emptyMap())),
+                        () -> logger.warn("Manifest not found in cached {} {}; skipping.", packageId, version))));
+        return all;
+    }
+
+    /**
+     * Append changes to the journal, and fold the journal into the index once it has grown long enough.
+     */
+    private void append(List<byte[]> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (byte[] change : changes) {
+            CRC32 crc = new CRC32();
+            crc.update(change);
+            output.writeInt(change.length);
+            output.writeInt((int) crc.getValue());
+            output.write(change);
+        }
+        output.flush();
+
+        Path journalPath = indexPath.resolveSibling(JOURNAL);
+        try (StorageLock ignored = lock(indexPath)) {
+            long size;
+            try (FileChannel channel = FileChannel.open(journalPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = channel.size() == 0
+                        ? ByteBuffer.allocate(JOURNAL_HEADER_SIZE + bytes.size())
+                                .putInt(JOURNAL_MAGIC)
+                                .putInt(FORMAT_VERSION)
+                                .put(bytes.toByteArray())
+                                .flip()
+                        : ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // Not forced: a change that is lost in a crash only means the version is retrieved again.
+                size = channel.size();
+            }
+            if (size >= MAX_JOURNAL_SIZE) {
+                fold(indexPath, cacheDir);
+            }
+        }
+    }
+
+    /**
+     * Write a new index with the journal's changes, holding the lock. If the index (or journal) can't be read, it is
+     * rebuilt from the cache directory instead.
+     */
+    private static void fold(Path indexPath, Path cacheDir) throws IOException {
+        Map<PackageId, Map<Version, Entry>> all;
+        try {
+            all = read(indexPath, cacheDir).decodeAllOrFail();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cache index could not be read; rebuilding it from the cache.", e);
+            all = scan();
+        }
+        write(indexPath, cacheDir, all);
+    }
+
+    /**
+     * Replace the index, and empty the journal, holding the lock.
+     */
+    private static void write(Path indexPath, Path cacheDir, Map<PackageId, Map<Version, Entry>> all)
+            throws IOException {
+        Path temporary = indexPath.resolveSibling(TEMPORARY);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(encode(all, cacheDir));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // If this doesn't happen, the changes are just replayed again on top of the index that has them already.
+        Files.deleteIfExists(indexPath.resolveSibling(JOURNAL));
+    }
+
+    /**
+     * Lock the index on disk, within this process and across processes, while it is changed.
+     */
+    private static StorageLock lock(Path indexPath) throws IOException {
+        return StorageLock.acquire(indexPath.resolveSibling(LOCK));
+    }
+
+    private static byte[] encode(Map<PackageId, Map<Version, Entry>> all, Path cacheDir) throws IOException {
+        List<PackageId> packageIds = new ArrayList<>(all.keySet());
+        packageIds.sort(Comparator.comparing(PackageId::toString));
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream blocksOutput = new DataOutputStream(blocks);
+        Map<PackageId, Integer> relativeOffsets = new HashMap<>();
+        for (PackageId packageId : packageIds) {
+            relativeOffsets.put(packageId, blocksOutput.size());
+            Map<Version, Entry> versions = all.get(packageId);
+            blocksOutput.writeInt(versions.size());
+            for (Map.Entry<Version, Entry> version : versions.entrySet()) {
+                writeVersion(blocksOutput, version.getKey(), version.getValue(), cacheDir);
+            }
+        }
+
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableOutput = new DataOutputStream(table);
+        for (PackageId packageId : packageIds) {
+            writeString(tableOutput, packageId.toString());
+            tableOutput.writeInt(0);
+        }
+        int blocksStart = 3 * Integer.BYTES + tableOutput.size();
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(index);
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(packageIds.size());
+        for (PackageId packageId : packageIds) {
+            writeString(output, packageId.toString());
+            output.writeInt(blocksStart + relativeOffsets.get(packageId));
+        }
+        blocks.writeTo(output);
+        output.flush();
+        return index.toByteArray();
+    }
+
+    private static void writeVersion(DataOutputStream output, Version version, Entry entry, Path cacheDir)
+            throws IOException {
+        writeString(output, version.toString());
+        writeString(output, cacheDir.relativize(entry.getPath()).toString());
+        writeString(output, Optional.ofNullable(entry.getIntegrity()).orElse(""));
+        output.writeInt(entry.getDependencies().size());
+        for (Map.Entry<PackageId, RevisionSource> dependency : entry.getDependencies().entrySet()) {
+            writeString(output, dependency.getKey().toString());
+            writeString(output, RevisionUtils.toString(dependency.getValue()));
+        }
+        output.writeInt(entry.getFiles().size());
+        for (Map.Entry<String, String> file : entry.getFiles().entrySet()) {
+            writeString(output, file.getKey());
+            writeString(output, file.getValue());
+        }
+    }
+
+    private static Map<Version, Entry> decodeBlock(ByteBuffer buffer, Path cacheDir) {
+        Map<Version, Entry> versions = new HashMap<>();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            decodeVersion(buffer, versions, cacheDir);
+        }
+        return versions;
+    }
+
+    private static void decodeVersion(ByteBuffer buffer, Map<Version, Entry> versions, Path cacheDir) {
+        Version version = Version.of(readString(buffer));
+        Path path = cacheDir.resolve(readString(buffer));
+        String integrity = readString(buffer);
+        int dependencyCount = buffer.getInt();
+        Map<PackageId, RevisionSource> dependencies = new HashMap<>();
+        for (int j = 0; j < dependencyCount; j++) {
+            dependencies.put(PackageId.from(readString(buffer)), RevisionUtils.fromString(readString(buffer)));
+        }
+        int fileCount = buffer.getInt();
+        Map<String, String> files = new HashMap<>();
+        for (int j = 0; j < fileCount; j++) {
+            files.put(readString(buffer), readString(buffer));
+        }
+        versions.put(version, new Entry(path, integrity.isEmpty() ? null : integrity, dependencies, files));
+    }
+
+    private static void replay(ByteBuffer change, Map<Version, Entry> versions, Path cacheDir) {
+        byte type = change.get();
+        if (type == RECORDED) {
+            decodeVersion(change, versions, cacheDir);
+        } else if (type == FORGOTTEN) {
+            int count = change.getInt();
+            for (int i = 0; i < count; i++) {
+                versions.remove(Version.of(readString(change)));
+            }
+        } else {
+            throw new IllegalStateException("Unrecognized change in the cache index journal.");
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Journal {
+
+        private final Map<PackageId, List<ByteBuffer>> changes;
+
+        // How much of it is complete changes, and how long it actually is.
+        private final long length;
+        private final long size;
+
+        private Journal(Map<PackageId, List<ByteBuffer>> changes, long length, long size) {
+            this.changes = changes;
+            this.length = length;
+            this.size = size;
+        }
+    }
+}
@@ -1,134 +1,329 @@
 package io.protop.core.cache;
 
 import io.protop.core.logs.Logger;
+import io.protop.core.manifest.DependencyMap;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.ManifestNotFound;
 import io.protop.core.manifest.PackageId;
 import io.protop.core.manifest.revision.Version;
+import io.protop.core.storage.BlobStore;
 import io.protop.core.storage.Storage;
+import io.protop.core.storage.StorageLock;
 import io.protop.core.storage.StorageService;
+import io.protop.core.storage.StorageUtils;
+import io.protop.utils.ArchiveUtils;
+import io.protop.utils.DigestUtils;
 import io.reactivex.Completable;
+import io.reactivex.Maybe;
 import io.reactivex.Single;
 import lombok.AllArgsConstructor;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.function.Consumer;
-import java.util.zip.GZIPInputStream;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @AllArgsConstructor
 public class CacheService {
 
     private static final Logger logger = Logger.getLogger(CacheService.class);
 
+    private static final String CACHE_LOCKS = "cache";
+
     private final StorageService storageService;
 
+    private final BlobStore blobStore = new BlobStore();
+
+    private final AtomicReference<CacheIndex> index = new AtomicReference<>();
+
+    // Versions being retrieved right now, so that everyone who asks for one at the same time shares its retrieval.
+    private final ConcurrentMap<Map.Entry<PackageId, Version>, Maybe<Path>> retrievals = new ConcurrentHashMap<>();
+
+    /**
+     * The index of the registry packages in the cache, loaded the first time it is needed. Once it is loaded, this
+     * doesn't lock.
+     */
+    public CacheIndex getIndex() {
+        CacheIndex loaded = index.get();
+        if (Objects.nonNull(loaded)) {
+            return loaded;
+        }
+        synchronized (index) {
+            if (Objects.isNull(index.get())) {
+                index.set(CacheIndex.load());
+            }
+            return index.get();
+        }
+    }
+
+    /**
+     * The cached version if it is intact (and has the expected integrity, if any), or else the version as it is
+     * retrieved and cached now.
+     *
+     * Threads that ask for the same version at the same time share a single retrieval. It is retrieved while
+     * holding the version's lock, so other processes wait for it as well; if one of them was caching it in the
+     * meantime, what it cached is used instead.
+     *
+     * @param tarball opens the g-zipped tarball of the version in the registry.
+     */
+    public Maybe<Path> getOrRetrieve(PackageId packageId,
+                                     Version version,
+                                     @Nullable String expectedIntegrity,
+                                     Callable<InputStream> tarball) {
+        Map.Entry<PackageId, Version> key = Map.entry(packageId, version);
+        return Maybe.defer(() -> retrievals.computeIfAbsent(key, k -> Maybe.using(
+                () -> lock(packageId, version),
+                lock -> {
+                    getIndex().reload(packageId);
+                    Optional<CacheIndex.Entry> cached = getDigested(packageId, version)
+                            .filter(entry -> isIntact(entry, expectedIntegrity));
+                    if (cached.isPresent()) {
+                        logger.info("{} {} is already cached.", packageId, version);
+                        return Maybe.just(cached.get().getPath());
+                    }
+                    return cacheFromRegistry(packageId, version, tarball.call(), expectedIntegrity).toMaybe();
+                },
+                StorageLock::close)
+                .doFinally(() -> retrievals.remove(key))
+                .cache()));
+    }
+
+    /**
+     * Lock a version in the cache, across processes, while it is retrieved and cached; whoever wants it next waits,
+     * and can then use it instead of retrieving it again.
+     */
+    private StorageLock lock(PackageId packageId, Version version) throws IOException {
+        return StorageLock.acquire(getLockPath(packageId, version));
+    }
+
+    static Path getLockPath(PackageId packageId, Version version) {
+        return Storage.pathOf(Storage.GlobalDirectory.LOCKS)
+                .resolve(CACHE_LOCKS)
+                .resolve(packageId.getOrganization())
+                .resolve(packageId.getProject())
+                .resolve(version + ".lock");
+    }
+
     /**
      * Cache g-zipped response from registry.
+     *
+     * The package is extracted into a hidden staging directory next to where it belongs, and then moved into place
+     * with a single rename, so nothing ever sees it half-extracted. Each file is digested as it is streamed in, and
+     * the package is only moved into place if the digest of its content matches the expected integrity (if any).
      */
-    public Single<Path> cacheFromRegistry(PackageId packageId, Version version, InputStream tarball) {
+    private Single<Path> cacheFromRegistry(PackageId packageId,
+                                          Version version,
+                                          InputStream tarball,
+                                          @Nullable String expectedIntegrity) {
         return Single.create(emitter -> {
             logger.info("Caching {}.", packageId);
+            Path extracted = null;
             try {
                 Path versionPath = resolveVersionPath(packageId, version);
-                unlock(versionPath);
-
-                // write the tarball to revision directory
-                GZIPInputStream gis = new GZIPInputStream(tarball);
-                TarArchiveInputStream tis = new TarArchiveInputStream(gis);
-
-                TarArchiveEntry entry = tis.getNextTarEntry();
-                while (Objects.nonNull(entry)) {
-                    Path path = versionPath.resolve(entry.getName());
-                    if (entry.isDirectory()) {
-                        continue;
-                    } else {
-                        new File(path.getParent().toUri()).mkdirs();
-                        IOUtils.copy(tis, new FileOutputStream(path.toFile()));
-                    }
-                    entry = tis.getNextTarEntry();
+                extracted = Files.createTempDirectory(versionPath.getParent(), "." + versionPath.getFileName() + ".");
+                Path destination = extracted;
+                Map<String, String> files = new HashMap<>();
+                ArchiveUtils.extractTarGz(tarball, destination, Function.identity(),
+                        (content, size, executable, path) -> files.put(
+                                DigestUtils.toUnixPath(destination.relativize(path)),
+                                blobStore.write(content, size, executable, path)));
+
+                String integrity = DigestUtils.digestFiles(files);
+                if (Objects.nonNull(expectedIntegrity) && !Objects.equals(expectedIntegrity, integrity)) {
+                    throw new IntegrityMismatch(packageId, version, expectedIntegrity, integrity);
                 }
-                tis.close();
 
-                lock(versionPath);
+                moveIntoCache(versionPath, extracted);
+                addToIndex(packageId, version, versionPath, integrity, files);
                 emitter.onSuccess(versionPath);
             } catch (Throwable t) {
+                if (Objects.nonNull(extracted) && Files.exists(extracted)) {
+                    try {
+                        StorageUtils.deleteDirectory(extracted);
+                    } catch (IOException e) {
+                        logger.warn("Failed to delete {}.", extracted);
+                    }
+                }
                 emitter.onError(t);
             }
         });
     }
 
-    private Path resolveVersionPath(PackageId packageId, Version version) throws IOException {
-        Path cache = Storage.pathOf(Storage.GlobalDirectory.CACHE);
-        logger.info("Resolving version path");
+    private void addToIndex(PackageId packageId,
+                            Version version,
+                            Path versionPath,
+                            String integrity,
+                            Map<String, String> files) throws IOException {
+        Manifest manifest = Manifest.from(versionPath)
+                .orElseThrow(ManifestNotFound::new);
+        getIndex().record(packageId, version, new CacheIndex.Entry(
+                versionPath,
+                integrity,
+                Optional.ofNullable(manifest.getDependencies())
+                        .map(DependencyMap::getValues)
+                        .orElseGet(HashMap::new),
+                files));
+    }
 
-        Path orgPath = cache.resolve(packageId.getOrganization());
-        unlock(orgPath.getParent());
-        if (!Files.isDirectory(orgPath)) {
-            if (Files.exists(orgPath)) {
-                Files.delete(orgPath);
-            }
-            Files.createDirectory(orgPath);
+    /**
+     * The cached version, with its integrity and the digests of its files. Versions that were indexed by scanning
+     * the cache (i.e. when the index was rebuilt) don't have those yet, so their files are digested (and linked to
+     * the blob store) the first time they are used, and recorded in the index. Whatever they contain then is what
+     * they are checked against from then on, unless a lockfile says otherwise.
+     *
+     * @return the entry, or nothing if it isn't cached or its files can't be read.
+     */
+    public Optional<CacheIndex.Entry> getDigested(PackageId packageId, Version version) {
+        Optional<CacheIndex.Entry> cached = getIndex().get(packageId, version);
+        if (cached.isEmpty() || Objects.nonNull(cached.get().getIntegrity())) {
+            return cached;
         }
 
-        Path projectPath = orgPath.resolve(packageId.getProject());
-        if (!Files.isDirectory(projectPath)) {
-            if (Files.exists(projectPath)) {
-                Files.delete(projectPath);
+        CacheIndex.Entry entry = cached.get();
+        logger.info("Digesting cached {} {}.", packageId, version);
+        try {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(entry.getPath())) {
+                paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
             }
-            Files.createDirectory(projectPath);
+            Map<String, String> files = new HashMap<>();
+            for (Path path : paths) {
+                files.put(DigestUtils.toUnixPath(entry.getPath().relativize(path)), blobStore.adopt(path));
+            }
+            CacheIndex.Entry digested = new CacheIndex.Entry(
+                    entry.getPath(), DigestUtils.digestFiles(files), entry.getDependencies(), files);
+            getIndex().record(packageId, version, digested);
+            return Optional.of(digested);
+        } catch (IOException | RuntimeException e) {
+            logger.warn(String.format("Failed to digest cached %s %s.", packageId, version), e);
+            return Optional.empty();
         }
+    }
 
-        Path versionPath = projectPath.resolve(version.toString());
-        if (!Files.isDirectory(versionPath)) {
-            if (Files.exists(versionPath)) {
-                Files.delete(versionPath);
+    /**
+     * Whether the cached version is intact, and has the expected integrity (if any). Use it on entries from
+     * {@link #getDigested}, since entries without an integrity never have the expected one.
+     */
+    public boolean isIntact(CacheIndex.Entry entry, @Nullable String expectedIntegrity) {
+        if (Objects.nonNull(expectedIntegrity) && !Objects.equals(expectedIntegrity, entry.getIntegrity())) {
+            return false;
+        }
+        return isIntact(entry);
+    }
+
+    /**
+     * Whether the files of a cached version are all still there with the content they were cached with. Files that
+     * are still linked to their blobs are known to be intact without reading them.
+     */
+    public boolean isIntact(CacheIndex.Entry entry) {
+        for (Map.Entry<String, String> file : entry.getFiles().entrySet()) {
+            Path path = entry.getPath().resolve(file.getKey());
+            if (!blobStore.isLinked(path, file.getValue())) {
+                try {
+                    // i.e. a copy, on a file system without hard links.
+                    if (!Files.isRegularFile(path)
+                            || !Objects.equals(DigestUtils.toHex(DigestUtils.digestFile(path)), file.getValue())) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    return false;
+                }
             }
-            Files.createDirectory(versionPath);
         }
-        lock(orgPath.getParent());
-        return versionPath;
+        return true;
     }
 
-    public void unlock(Storage.GlobalDirectory globalDirectory) {
-        unlock(Storage.pathOf(globalDirectory));
+    /**
+     * Only the new entry is made read-only, before it is moved into place with a single rename, so nothing else in
+     * the cache is touched and other writers don't have to wait.
+     */
+    private void moveIntoCache(Path versionPath, Path extracted) throws IOException {
+        try (Stream<Path> paths = Files.walk(extracted)) {
+            // The top directory stays writable until it is moved, since renaming a directory updates it.
+            paths.filter(path -> !path.equals(extracted))
+                    .forEach(path -> path.toFile().setReadOnly());
+        }
+
+        if (Files.exists(versionPath, LinkOption.NOFOLLOW_LINKS)) {
+            // Replaced (e.g. if it was modified), so it is renamed away first and then deleted.
+            Path replaced = versionPath.resolveSibling("." + versionPath.getFileName() + "." + UUID.randomUUID());
+            versionPath.toFile().setWritable(true);
+            Files.move(versionPath, replaced, StandardCopyOption.ATOMIC_MOVE);
+            StorageUtils.deleteDirectory(replaced);
+        }
+        try {
+            Files.move(extracted, versionPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.isDirectory(versionPath)) {
+                throw e;
+            }
+            // Another sync cached the same version first.
+            StorageUtils.deleteDirectory(extracted);
+        }
+        versionPath.toFile().setReadOnly();
     }
 
-    private void unlock(Path dependencyDir) {
-        logger.info("Unlocking dependencies.");
-        // TODO handle "false" response
-        walkAndApply(dependencyDir, file -> file.setWritable(true));
+    private Path resolveVersionPath(PackageId packageId, Version version) throws IOException {
+        Path cache = Storage.pathOf(Storage.GlobalDirectory.CACHE);
+        Path projectPath = cache.resolve(packageId.getOrganization()).resolve(packageId.getProject());
+        try {
+            Files.createDirectories(projectPath);
+        } catch (FileAlreadyExistsException e) {
+            // A stray file where a directory should be.
+            Files.delete(Path.of(e.getFile()));
+            Files.createDirectories(projectPath);
+        }
+        // Caches written by older versions locked these too; only the entries themselves are locked now.
+        for (Path path = projectPath; !path.equals(cache); path = path.getParent()) {
+            if (!Files.isWritable(path)) {
+                path.toFile().setWritable(true);
+            }
+        }
+        if (!Files.isWritable(cache)) {
+            cache.toFile().setWritable(true);
+        }
+
+        return projectPath.resolve(version.toString());
     }
 
-    public void lock(Storage.GlobalDirectory globalDirectory) {
-        lock(Storage.pathOf(globalDirectory));
+    /**
+     * Record that a cached version or git worktree was used just now, so that it is kept over ones that weren't.
+     */
+    public void markUsed(Path entry) {
+        StorageUtils.touch(entry);
     }
 
     /**
-     * Makes the directory and everything in it un-writable, mainly to protect against accidental modifications.
+     * Evict what the policy doesn't allow from the cache. Evicted entries are only moved into the trash; see
+     * {@link #emptyTrash()}.
      */
-    private void lock(Path dependencyDir) {
-        // TODO handle "false" response
-        walkAndApply(dependencyDir, File::setReadOnly);
+    public Single<CacheCollector.Result> collectGarbage(CacheCollector.Policy policy) {
+        return Single.fromCallable(() -> new CacheCollector(getIndex()).collect(policy));
     }
 
-    private void walkAndApply(Path directory, Consumer<File> consumer) {
-        File file = directory.toFile();
-        consumer.accept(file);
-        try {
-            Files.walk(directory).forEach(child -> {
-                consumer.accept(child.toFile());
-            });
-        } catch (IOException e) {
-            logger.warn("Failed to walk file tree and/or apply changes.", e);
-        }
+    /**
+     * Delete what was evicted from the cache, and the files nothing links to anymore.
+     */
+    public Completable emptyTrash() {
+        return Completable.fromAction(CacheCollector::emptyTrash);
     }
 
     /**
@@ -137,17 +332,25 @@ public class CacheService {
     public Completable clean() {
         return Completable.fromCallable(() -> {
             Path cache = Storage.pathOf(Storage.GlobalDirectory.CACHE);
-            unlock(cache);
-            FileUtils.cleanDirectory(cache.toFile());
-            lock(cache);
+            cleanDirectory(cache);
+            getIndex().clear();
 
             // Git sources are currently cached in a sibling directory
-            Path gitCache = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE);
-            unlock(gitCache);
-            FileUtils.cleanDirectory(gitCache.toFile());
-            lock(gitCache);
+            cleanDirectory(Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE));
+
+            // Nothing links to the blobs anymore.
+            cleanDirectory(Storage.pathOf(Storage.GlobalDirectory.BLOBS));
 
             return null;
         });
     }
+
+    private void cleanDirectory(Path directory) throws IOException {
+        directory.toFile().setWritable(true);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                StorageUtils.deleteDirectory(child);
+            }
+        }
+    }
 }
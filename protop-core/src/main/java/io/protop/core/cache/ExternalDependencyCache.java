@@ -14,12 +14,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * May contain files directly retrieved from registries or symbolic links to projects
  * cached in the GitCache from git repositories.
+ *
+ * Loading walks the whole cache, so it is only used to (re)build the {@link CacheIndex}.
  */
 @Getter
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
@@ -32,8 +34,8 @@ public class ExternalDependencyCache {
     public static Single<ExternalDependencyCache> load() {
         Path cacheDirectory = Storage.pathOf(Storage.GlobalDirectory.CACHE);
 
-        // This is mutable so we can update it as we cache new dependencies.
-        Map<PackageId, Map<Version, Path>> projects = new HashMap<>();
+        // This is mutable so we can update it as we cache new dependencies, from any thread.
+        Map<PackageId, Map<Version, Path>> projects = new ConcurrentHashMap<>();
 
         return Single.fromCallable(() -> {
             Files.list(cacheDirectory).forEach(p -> memoizeProjects(projects, p));
@@ -42,7 +44,7 @@ public class ExternalDependencyCache {
     }
 
     private static void memoizeProjects(Map<PackageId, Map<Version, Path>> memo, Path path) {
-        if (!Files.isDirectory(path)) {
+        if (!Files.isDirectory(path) || isHidden(path)) {
             return;
         }
 
@@ -51,12 +53,16 @@ public class ExternalDependencyCache {
 
         try {
             Files.list(path).forEach(projectDir -> {
-                if (Files.isDirectory(projectDir)) {
+                if (Files.isDirectory(projectDir) && !isHidden(projectDir)) {
                     PackageId packageId = new PackageId(orgName, projectDir.toFile().getName());
 
-                    Map<Version, Path> revisions = new HashMap<>();
+                    Map<Version, Path> revisions = new ConcurrentHashMap<>();
                     try {
                         Files.list(projectDir).forEach(revisionPath -> {
+                            if (isHidden(revisionPath)) {
+                                // Being staged (or deleted) by a sync; it isn't cached (anymore).
+                                return;
+                            }
                             String fileName = revisionPath.toFile().getName();
                             try {
                                 Version version = new Version(fileName);
@@ -76,6 +82,10 @@ public class ExternalDependencyCache {
         }
     }
 
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
     private static void handleError(Throwable e) {
         throw new RuntimeException("Failed to load cached projects.", e);
     }
@@ -1,84 +1,34 @@
 package io.protop.core.cache;
 
-import io.protop.core.logs.Logger;
 import io.protop.core.manifest.PackageId;
-import io.protop.core.manifest.Manifest;
-import io.protop.core.manifest.ManifestNotFound;
 import io.protop.core.manifest.revision.GitSource;
-import io.protop.core.manifest.revision.InvalidRevision;
-import io.protop.core.manifest.revision.Version;
-import io.protop.core.storage.Storage;
-import io.reactivex.Single;
-import lombok.AllArgsConstructor;
-import lombok.Getter;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
-
-@Getter
-@AllArgsConstructor
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The git sources resolved so far in one sync, each to a commit.
+ *
+ * A source is only resolved (and, if necessary, fetched) the first time it is asked for; after that the same commit
+ * is used for the rest of the sync.
+ */
 public class GitCache {
 
-    private static final Logger logger = Logger.getLogger(GitCache.class);
-
-    private final Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> projects;
-
-    public static Single<GitCache> load() {
-        Path cacheDirectory = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE);
-
-        // This is mutable so we can update it as we cache new dependencies.
-        Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> projects = new HashMap<>();
-
-        return Single.fromCallable(() -> {
-            Files.list(cacheDirectory).forEach(p -> memoizeProjects(projects, p));
-            return new GitCache(projects);
-        });
-    }
-
-    private static void memoizeProjects(Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> memo, Path path) {
-        if (!Files.isDirectory(path)) {
-            return;
-        }
-
-        File orgDir = path.toFile();
-        String orgName = orgDir.getName();
-
-        try {
-            Files.list(path).forEach(projectDir -> {
-                if (Files.isDirectory(projectDir)) {
-                    PackageId packageId = new PackageId(orgName, projectDir.toFile().getName());
+    private final ConcurrentMap<PackageId, Map<GitSource, String>> projects = new ConcurrentHashMap<>();
 
-                    Map<GitSource, Map.Entry<Version, Path>> revisions = new HashMap<>();
-                    try {
-                        Files.list(projectDir).forEach(gitUrlPath -> {
-                            String fileName = gitUrlPath.toFile().getName();
-                            try {
-                                GitSource gitSource = GitSource.fromEncodedUrl(fileName);
-                                Manifest manifest = Manifest.from(gitUrlPath)
-                                        .orElseThrow(ManifestNotFound::new);
-                                revisions.put(gitSource, Map.entry(manifest.getVersion(), gitUrlPath));
-                            } catch (InvalidRevision e) {
-                                logger.warn("Not a valid git repository URL; skipping {}.", fileName);
-                            } catch (ManifestNotFound e) {
-                                logger.warn("Manifest not found in supposed git repo; skipping {}.", fileName);
-                            }
-                        });
-                        memo.put(packageId, revisions);
-                    } catch (IOException e) {
-                        handleError(e);
-                    }
-                }
-            });
-        } catch (IOException e) {
-            handleError(e);
-        }
+    public Optional<String> get(PackageId packageId, GitSource gitSource) {
+        return Optional.ofNullable(projects.getOrDefault(packageId, Map.of()).get(gitSource));
     }
 
-    private static void handleError(Throwable e) {
-        throw new RuntimeException("Failed to load cached projects.", e);
+    /**
+     * @return the commit the source was resolved to first, which is the one used from then on even if another
+     * thread resolved it at the same time (and maybe to a newer commit).
+     */
+    public String put(PackageId packageId, GitSource gitSource, String commit) {
+        String existing = projects.computeIfAbsent(packageId, p -> new ConcurrentHashMap<>())
+                .putIfAbsent(gitSource, commit);
+        return Objects.nonNull(existing) ? existing : commit;
     }
 }
@@ -0,0 +1,19 @@
+package io.protop.core.cache;
+
+import io.protop.core.error.ServiceException;
+import io.protop.core.error.ServiceExceptionConsumer;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.Version;
+
+public class IntegrityMismatch extends ServiceException {
+
+    public IntegrityMismatch(PackageId packageId, Version version, String expected, String actual) {
+        super(String.format("Content of %s %s does not match its expected integrity (expected %s, got %s).",
+                packageId, version, expected, actual));
+    }
+
+    @Override
+    public void accept(ServiceExceptionConsumer consumer) {
+        consumer.consume(this);
+    }
+}
@@ -1,6 +1,9 @@
 package io.protop.core.error;
 
 import io.protop.core.auth.AuthenticationFailed;
+import io.protop.core.cache.IntegrityMismatch;
+import io.protop.core.lock.LockfileNotFound;
+import io.protop.core.lock.LockfileOutOfDate;
 import io.protop.core.manifest.InvalidDependencyName;
 import io.protop.core.manifest.ManifestNotFound;
 import io.protop.core.manifest.revision.InvalidRevision;
@@ -27,4 +30,10 @@ public interface ServiceExceptionConsumer {
     void consume(ManifestNotFound manifestNotFound);
 
     void consume(InvalidRevision invalidRevision);
+
+    void consume(LockfileNotFound lockfileNotFound);
+
+    void consume(LockfileOutOfDate lockfileOutOfDate);
+
+    void consume(IntegrityMismatch integrityMismatch);
 }
@@ -0,0 +1,32 @@
+package io.protop.core.git;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * How much of a git repository is retrieved for a git-sourced dependency.
+ */
+public enum GitFetchMode {
+
+    // Only the latest commit of the one branch that is needed, and only its proto files and manifest.
+    SPARSE,
+
+    // Every branch with full history, and a full working tree.
+    FULL,
+
+    // Like SPARSE, but from an archive of the commit downloaded over HTTP instead of with git, for repositories
+    // on GitHub, GitLab or Bitbucket. Other repositories are retrieved as with SPARSE.
+    ARCHIVE;
+
+    public static GitFetchMode fromString(String value) {
+        return Arrays.stream(values())
+                .filter(mode -> mode.name().equalsIgnoreCase(value.trim()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(String.format(
+                        "Invalid git fetch mode \"%s\"; must be one of: %s.",
+                        value,
+                        Arrays.stream(values())
+                                .map(mode -> mode.name().toLowerCase())
+                                .collect(Collectors.joining(", ")))));
+    }
+}
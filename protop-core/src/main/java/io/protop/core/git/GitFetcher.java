@@ -0,0 +1,641 @@
+package io.protop.core.git;
+
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.revision.GitSource;
+import io.protop.core.storage.BlobStore;
+import io.protop.core.storage.Storage;
+import io.protop.core.storage.StorageLock;
+import io.protop.core.storage.StorageUtils;
+import io.protop.utils.ArchiveUtils;
+import io.protop.utils.DigestUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Retrieves git-sourced dependencies into the git cache.
+ *
+ * Each repository URL has one bare repository (the object store) under "repositories", shared by every ref and
+ * every project on the machine. Refs are resolved to commits, and nothing is ever checked out: manifests are read
+ * straight from the object store, and the files of a commit are written out once as a read-only worktree under
+ * "trees", keyed by the id of the tree of just those files. Commits that share the same files (e.g. most commits,
+ * in sparse mode) share one worktree, which "commits/&lt;sha&gt;" links to. The files of worktrees are links into the
+ * {@link BlobStore}, so content shared with other worktrees or the registry cache is only stored once.
+ *
+ * In {@link GitFetchMode#SPARSE} mode only the needed ref is fetched, at depth 1, and only the proto files and
+ * manifest are written to the worktree. In {@link GitFetchMode#FULL} mode every branch and tag is fetched with
+ * full history and the worktree has every file. In {@link GitFetchMode#ARCHIVE} mode (for repositories on
+ * platforms that serve archives; others are fetched sparsely) nothing is fetched with git: refs are resolved with
+ * ls-remote and recorded in the repository's config, and the worktree is extracted from an archive of the commit
+ * downloaded over HTTP. It has the same files as a sparse worktree, and so the same tree id.
+ */
+public class GitFetcher {
+
+    private static final Logger logger = Logger.getLogger(GitFetcher.class);
+
+    public static final String REPOSITORIES = "repositories";
+    public static final String TREES = "trees";
+    public static final String COMMITS = "commits";
+    public static final String FULL_SUFFIX = "-full";
+    private static final String GIT_LOCKS = "git";
+    private static final String SHALLOW = "shallow";
+    private static final String PROTO_EXTENSION = ".proto";
+
+    // Hidden, so it is neither part of the worktree's digest nor of the merged path.
+    private static final String INTEGRITY = ".protop-integrity";
+    private static final String ORIGIN = Constants.DEFAULT_REMOTE_NAME;
+
+    // When each ref was last checked against the remote (and in archive mode, the commit it was resolved to),
+    // kept in the repository's config.
+    private static final String REFS_SECTION = "protop";
+    private static final String CHECKED = "checked";
+    private static final String COMMIT = "commit";
+
+    private final BlobStore blobStore = new BlobStore();
+
+    private final Path gitCacheDirectory;
+    private final GitFetchMode mode;
+    private final ProgressMonitor progressMonitor;
+
+    // Overrides of the platforms' archive base URLs; see GitSource#getArchiveUrl.
+    private final Map<String, String> archiveBaseUrls;
+
+    // Only what is already in the git cache is used; nothing is fetched.
+    private final boolean offline;
+
+    public GitFetcher(Path gitCacheDirectory,
+                      GitFetchMode mode,
+                      ProgressMonitor progressMonitor,
+                      Map<String, String> archiveBaseUrls,
+                      boolean offline) {
+        this.gitCacheDirectory = gitCacheDirectory;
+        this.mode = mode;
+        this.progressMonitor = progressMonitor;
+        this.archiveBaseUrls = archiveBaseUrls;
+        this.offline = offline;
+    }
+
+    /**
+     * Resolve the ref of the source to a commit SHA. What is already in the object store is used unless it doesn't
+     * have the ref yet, or a refresh is asked for, or the ref was last checked against the remote longer ago than
+     * the refresh TTL (if any). Checking is cheap: the ref is only fetched if it has moved on the remote.
+     */
+    public String resolve(GitSource gitSource, boolean refresh, @Nullable Duration refreshTtl)
+            throws IOException, GitAPIException {
+        String ref = gitSource.getRef();
+        if (Objects.nonNull(ref) && ObjectId.isId(ref)) {
+            return ref.toLowerCase();
+        }
+
+        try (StorageLock ignored = lockFor(gitSource)) {
+            return resolveWithLock(gitSource, ref, refresh, refreshTtl);
+        }
+    }
+
+    private String resolveWithLock(GitSource gitSource,
+                                   @Nullable String ref,
+                                   boolean refresh,
+                                   @Nullable Duration refreshTtl) throws IOException, GitAPIException {
+        try (Git git = openRepository(gitSource)) {
+            Repository repository = git.getRepository();
+            boolean archived = isArchived(gitSource);
+            Optional<ObjectId> local = archived ? resolveRecorded(repository, ref) : resolveLocally(repository, ref);
+            if (local.isPresent() && (offline || !refresh && isFresh(repository, ref, refreshTtl))) {
+                return local.get().getName();
+            }
+            requireOnline(gitSource.toString());
+
+            try {
+                updateRef(git, gitSource);
+            } catch (TransportException e) {
+                if (local.isPresent()) {
+                    // What is already in the store is still usable; it just might not be the latest.
+                    logger.error(String.format("Failed to update %s; using what was fetched before.", gitSource), e);
+                    return local.get().getName();
+                }
+                throw e;
+            }
+            return (archived ? resolveRecorded(repository, ref) : resolveLocally(repository, ref))
+                    .map(ObjectId::getName)
+                    .orElseThrow(() -> new IOException(String.format("Ref not found in %s.", gitSource)));
+        }
+    }
+
+    /**
+     * Read the manifest of the commit straight from the object store, fetching the commit first if necessary.
+     */
+    public Optional<Manifest> readManifest(GitSource gitSource, String commit) throws IOException, GitAPIException {
+        try (StorageLock ignored = lockFor(gitSource)) {
+            return readManifestWithLock(gitSource, commit);
+        }
+    }
+
+    private Optional<Manifest> readManifestWithLock(GitSource gitSource, String commit)
+            throws IOException, GitAPIException {
+        if (isArchived(gitSource)) {
+            // There is no object store to read from; the manifest is only in the archive.
+            return Manifest.from(materializeWithLock(gitSource, commit, getCommitLink(commit)));
+        }
+
+        try (Git git = openRepository(gitSource);
+             RevWalk revWalk = new RevWalk(git.getRepository())) {
+            Repository repository = git.getRepository();
+            RevCommit revCommit = revWalk.parseCommit(ensureCommit(git, commit));
+            try (TreeWalk treeWalk = TreeWalk.forPath(repository, Manifest.PROTOP_JSON, revCommit.getTree())) {
+                if (Objects.isNull(treeWalk)) {
+                    return Optional.empty();
+                }
+                try (InputStream inputStream = repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB)
+                        .openStream()) {
+                    return Optional.of(Manifest.from(inputStream));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the directory with the files of the commit, writing them out (and fetching the commit) first if
+     * necessary.
+     */
+    public Path materialize(GitSource gitSource, String commit) throws IOException, GitAPIException {
+        try (StorageLock ignored = lockFor(gitSource)) {
+            return materializeWithLock(gitSource, commit, getCommitLink(commit));
+        }
+    }
+
+    private Path getCommitLink(String commit) {
+        // Full worktrees have different files, so they are remembered apart from sparse (and archived) ones.
+        String commitName = (mode == GitFetchMode.FULL) ? commit + FULL_SUFFIX : commit;
+        return gitCacheDirectory.resolve(COMMITS).resolve(commitName);
+    }
+
+    private Path materializeWithLock(GitSource gitSource, String commit, Path commitLink)
+            throws IOException, GitAPIException {
+        if (Files.isDirectory(commitLink)) {
+            return commitLink.resolveSibling(Files.readSymbolicLink(commitLink)).normalize();
+        }
+
+        if (isArchived(gitSource)) {
+            Path tree = downloadTree(gitSource, commit);
+            linkCommit(commitLink, tree);
+            return tree;
+        }
+
+        try (Git git = openRepository(gitSource)) {
+            Repository repository = git.getRepository();
+            List<TreeFile> files = listFiles(repository, ensureCommit(git, commit));
+            Path tree = gitCacheDirectory.resolve(TREES).resolve(computeTreeId(files).getName());
+            if (!Files.isDirectory(tree)) {
+                writeTree(repository, files, tree);
+            }
+            linkCommit(commitLink, tree);
+            return tree;
+        }
+    }
+
+    private void requireOnline(String missing) throws IOException {
+        if (offline) {
+            throw new IOException(String.format("%s is not in the git cache, and sync is offline.", missing));
+        }
+    }
+
+    private boolean isArchived(GitSource gitSource) {
+        return mode == GitFetchMode.ARCHIVE && gitSource.hasArchives();
+    }
+
+    /**
+     * Only one thread, in any process, uses a repository at a time.
+     */
+    private StorageLock lockFor(GitSource gitSource) throws IOException {
+        return StorageLock.acquire(getLockPath(gitSource.getUrlEncoded()));
+    }
+
+    /**
+     * @param repository the name of the repository's directory in {@link #REPOSITORIES}.
+     */
+    public static Path getLockPath(String repository) {
+        return Storage.pathOf(Storage.GlobalDirectory.LOCKS)
+                .resolve(GIT_LOCKS)
+                .resolve(repository + ".lock");
+    }
+
+    private Path getRepositoryPath(GitSource gitSource) {
+        return gitCacheDirectory.resolve(REPOSITORIES).resolve(gitSource.getUrlEncoded());
+    }
+
+    /**
+     * Open the object store of the source's repository, creating it (or creating it again, if it is corrupt) as
+     * necessary.
+     */
+    private Git openRepository(GitSource gitSource) throws IOException, GitAPIException {
+        Path repositoryPath = getRepositoryPath(gitSource);
+        if (Files.isDirectory(repositoryPath)) {
+            try {
+                Git git = Git.open(repositoryPath.toFile());
+                StorageUtils.touch(repositoryPath);
+                return git;
+            } catch (IOException e) {
+                logger.warn("Git repo for {} appears to be corrupt; creating it again.", gitSource);
+                StorageUtils.deleteDirectory(repositoryPath);
+            }
+        }
+
+        Git git = Git.init()
+                .setBare(true)
+                .setDirectory(repositoryPath.toFile())
+                .call();
+        StoredConfig config = git.getRepository().getConfig();
+        config.setString("remote", ORIGIN, "url", gitSource.getRawUrl());
+        config.save();
+        return git;
+    }
+
+    private Optional<ObjectId> resolveLocally(Repository repository, String ref) throws IOException {
+        List<String> candidates = Objects.isNull(ref)
+                ? Collections.singletonList(Constants.HEAD)
+                : Arrays.asList(Constants.R_HEADS + ref, Constants.R_TAGS + ref);
+        for (String candidate : candidates) {
+            Ref found = repository.exactRef(candidate);
+            if (Objects.nonNull(found) && Objects.nonNull(found.getObjectId())) {
+                // Annotated tags point at tag objects rather than commits.
+                return Optional.ofNullable(repository.resolve(candidate + "^{commit}"));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<ObjectId> resolveRecorded(Repository repository, @Nullable String ref) {
+        return Optional.ofNullable(repository.getConfig().getString(REFS_SECTION, getCheckedSubsection(ref), COMMIT))
+                .filter(ObjectId::isId)
+                .map(ObjectId::fromString);
+    }
+
+    private boolean isFresh(Repository repository, @Nullable String ref, @Nullable Duration refreshTtl) {
+        if (Objects.isNull(refreshTtl)) {
+            return true;
+        }
+        long checked = repository.getConfig().getLong(REFS_SECTION, getCheckedSubsection(ref), CHECKED, 0);
+        return Instant.ofEpochMilli(checked).plus(refreshTtl).isAfter(Instant.now());
+    }
+
+    /**
+     * Look the ref up on the remote, and fetch it only if it has moved since it was last fetched. In archive mode,
+     * the commit is only recorded.
+     */
+    private void updateRef(Git git, GitSource gitSource) throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        Collection<Ref> remoteRefs = git.lsRemote()
+                .setRemote(ORIGIN)
+                .call();
+        Ref remoteRef = findRemoteRef(gitSource, remoteRefs);
+        String refName = remoteRef.getName();
+
+        StoredConfig config = repository.getConfig();
+        if (isArchived(gitSource)) {
+            // Annotated tags point at tag objects rather than commits.
+            ObjectId commitId = Optional.ofNullable(remoteRef.getPeeledObjectId())
+                    .orElse(remoteRef.getObjectId());
+            config.setString(REFS_SECTION, getCheckedSubsection(gitSource.getRef()), COMMIT, commitId.getName());
+        } else {
+            Ref localRef = repository.exactRef(refName);
+            if (Objects.nonNull(localRef) && Objects.equals(localRef.getObjectId(), remoteRef.getObjectId())) {
+                logger.info("{} is up to date in {}.", Repository.shortenRefName(refName), gitSource.getRawUrl());
+            } else {
+                fetchRef(git, gitSource, refName);
+            }
+
+            if (Objects.isNull(gitSource.getRef())) {
+                // Remember the default branch, so that it can be resolved without going to the remote next time.
+                repository.updateRef(Constants.HEAD).link(refName);
+            }
+        }
+
+        config.setLong(REFS_SECTION, getCheckedSubsection(gitSource.getRef()), CHECKED,
+                Instant.now().toEpochMilli());
+        config.save();
+    }
+
+    private String getCheckedSubsection(@Nullable String ref) {
+        return Objects.isNull(ref) ? Constants.HEAD : ref;
+    }
+
+    private void fetchRef(Git git, GitSource gitSource, String refName) throws IOException, GitAPIException {
+        FetchCommand fetch = git.fetch()
+                .setRemote(ORIGIN)
+                .setProgressMonitor(progressMonitor);
+        if (mode == GitFetchMode.FULL) {
+            fetch.setRefSpecs(
+                    new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*"),
+                    new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*"))
+                    .setRemoveDeletedRefs(true);
+            if (isShallow(git.getRepository())) {
+                fetch.setUnshallow(true);
+            }
+        } else {
+            fetch.setRefSpecs(new RefSpec("+" + refName + ":" + refName))
+                    .setDepth(1);
+        }
+        logger.info("Fetching {} from {}.", Repository.shortenRefName(refName), gitSource.getRawUrl());
+        fetch.call();
+    }
+
+    private ObjectId ensureCommit(Git git, String commit) throws IOException, GitAPIException {
+        ObjectId commitId = ObjectId.fromString(commit);
+        if (!git.getRepository().getObjectDatabase().has(commitId)) {
+            requireOnline(commit);
+            fetchCommit(git, commitId);
+        }
+        return commitId;
+    }
+
+    private void fetchCommit(Git git, ObjectId commitId) throws IOException, GitAPIException {
+        logger.info("Fetching commit {}.", commitId.getName());
+        try {
+            FetchCommand fetch = git.fetch()
+                    .setRemote(ORIGIN)
+                    .setProgressMonitor(progressMonitor)
+                    .setRefSpecs(new RefSpec(commitId.getName()));
+            if (mode != GitFetchMode.FULL) {
+                fetch.setDepth(1);
+            }
+            fetch.call();
+        } catch (TransportException e) {
+            // Not every server lets a commit be fetched directly, so fall back to fetching every branch.
+            logger.info("Commit {} could not be fetched directly; fetching every branch.", commitId.getName());
+            git.fetch()
+                    .setRemote(ORIGIN)
+                    .setProgressMonitor(progressMonitor)
+                    .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*"))
+                    .setUnshallow(isShallow(git.getRepository()))
+                    .call();
+        }
+        if (!git.getRepository().getObjectDatabase().has(commitId)) {
+            throw new IOException(String.format("Commit %s not found.", commitId.getName()));
+        }
+    }
+
+    /**
+     * The remote ref that the source refers to: a branch or tag, or the default branch.
+     */
+    private Ref findRemoteRef(GitSource gitSource, Collection<Ref> remoteRefs) throws IOException {
+        Map<String, Ref> refsByName = remoteRefs.stream()
+                .collect(Collectors.toMap(Ref::getName, ref -> ref, (a, b) -> a));
+        String ref = gitSource.getRef();
+        if (Objects.nonNull(ref)) {
+            for (String candidate : Arrays.asList(Constants.R_HEADS + ref, Constants.R_TAGS + ref)) {
+                if (refsByName.containsKey(candidate)) {
+                    return refsByName.get(candidate);
+                }
+            }
+            throw new IOException(String.format("No branch or tag \"%s\" in %s.", ref, gitSource.getRawUrl()));
+        }
+
+        Ref head = refsByName.get(Constants.HEAD);
+        if (Objects.nonNull(head) && head.isSymbolic()) {
+            return refsByName.getOrDefault(head.getTarget().getName(), head.getTarget());
+        }
+        // Without the symbolic ref, go by whichever branch is at the same commit.
+        return Optional.ofNullable(head)
+                .flatMap(h -> remoteRefs.stream()
+                        .filter(r -> r.getName().startsWith(Constants.R_HEADS))
+                        .filter(r -> Objects.equals(r.getObjectId(), h.getObjectId()))
+                        .findFirst())
+                .or(() -> Optional.ofNullable(refsByName.get(Constants.R_HEADS + Constants.MASTER)))
+                .orElseThrow(() -> new IOException(
+                        String.format("No default branch in %s.", gitSource.getRawUrl())));
+    }
+
+    private boolean isShallow(Repository repository) {
+        return Files.exists(repository.getDirectory().toPath().resolve(SHALLOW));
+    }
+
+    /**
+     * The files of the commit that belong in its worktree (only proto files and the manifest, in sparse mode).
+     * Symbolic links and submodules are left out.
+     */
+    private List<TreeFile> listFiles(Repository repository, ObjectId commitId) throws IOException {
+        List<TreeFile> files = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+            treeWalk.setRecursive(true);
+            if (mode != GitFetchMode.FULL) {
+                treeWalk.setFilter(OrTreeFilter.create(
+                        PathFilter.create(Manifest.PROTOP_JSON),
+                        PathSuffixFilter.create(PROTO_EXTENSION)));
+            }
+            while (treeWalk.next()) {
+                if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE) {
+                    files.add(new TreeFile(treeWalk.getPathString(), treeWalk.getFileMode(0),
+                            treeWalk.getObjectId(0)));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The id of a git tree holding just the given files, which identifies the worktree's content no matter which
+     * commit (or branch, or repository) it came from. Nothing is written to the object store.
+     */
+    private ObjectId computeTreeId(List<TreeFile> files) throws IOException {
+        DirCache dirCache = DirCache.newInCore();
+        DirCacheBuilder builder = dirCache.builder();
+        for (TreeFile file : files) {
+            DirCacheEntry entry = new DirCacheEntry(file.path);
+            entry.setFileMode(file.mode);
+            entry.setObjectId(file.objectId);
+            builder.add(entry);
+        }
+        builder.finish();
+        try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            return dirCache.writeTree(formatter);
+        }
+    }
+
+    /**
+     * Write the files to a new read-only directory, which appears all at once.
+     */
+    private void writeTree(Repository repository, List<TreeFile> files, Path tree) throws IOException {
+        Files.createDirectories(tree.getParent());
+        Path staging = Files.createTempDirectory(tree.getParent(), "." + tree.getFileName());
+        try {
+            Map<String, String> fileDigests = new HashMap<>();
+            for (TreeFile treeFile : files) {
+                Path path = staging.resolve(treeFile.path).normalize();
+                if (!path.startsWith(staging)) {
+                    continue;
+                }
+                Files.createDirectories(path.getParent());
+                ObjectLoader loader = repository.open(treeFile.objectId, Constants.OBJ_BLOB);
+                try (InputStream inputStream = loader.openStream()) {
+                    fileDigests.put(treeFile.path, blobStore.write(inputStream, loader.getSize(),
+                            FileMode.EXECUTABLE_FILE.equals(treeFile.mode), path));
+                }
+            }
+            writeIntegrity(staging, fileDigests);
+            publishTree(staging, tree);
+        } finally {
+            if (Files.exists(staging)) {
+                StorageUtils.deleteDirectory(staging);
+            }
+        }
+    }
+
+    /**
+     * Download an archive of the commit and extract the proto files and manifest from it, as it is streamed, into
+     * a new read-only directory keyed by their tree id.
+     */
+    private Path downloadTree(GitSource gitSource, String commit) throws IOException {
+        requireOnline(gitSource.toString());
+        String url = gitSource.getArchiveUrl(commit, archiveBaseUrls)
+                .orElseThrow(() -> new IOException(String.format("No archives of %s.", gitSource)));
+        Path trees = gitCacheDirectory.resolve(TREES);
+        Files.createDirectories(trees);
+        Path staging = Files.createTempDirectory(trees, ".archive");
+        Map<String, String> fileDigests = new HashMap<>();
+        try {
+            logger.info("Downloading {}.", url);
+            try (CloseableHttpClient client = HttpClients.createSystem();
+                 CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status != HttpStatus.SC_OK) {
+                    throw new IOException(String.format("Failed to download %s (HTTP %d).", url, status));
+                }
+                try (InputStream inputStream = response.getEntity().getContent()) {
+                    ArchiveUtils.extractTarGz(inputStream, staging, GitFetcher::getArchivedPath,
+                            (content, size, executable, path) -> fileDigests.put(
+                                    DigestUtils.toUnixPath(staging.relativize(path)),
+                                    blobStore.write(content, size, executable, path)));
+                }
+            }
+
+            Path tree = trees.resolve(computeTreeId(listFiles(staging)).getName());
+            writeIntegrity(staging, fileDigests);
+            publishTree(staging, tree);
+            return tree;
+        } finally {
+            if (Files.exists(staging)) {
+                StorageUtils.deleteDirectory(staging);
+            }
+        }
+    }
+
+    /**
+     * The path of an archive entry within the worktree, if it belongs there. Archives have every file under one
+     * top-level directory (named after the repository and commit), which is left out.
+     */
+    @Nullable
+    private static String getArchivedPath(String entryName) {
+        int separator = entryName.indexOf('/');
+        if (separator < 0) {
+            return null;
+        }
+        String path = entryName.substring(separator + 1);
+        return (path.equals(Manifest.PROTOP_JSON) || path.endsWith(PROTO_EXTENSION)) ? path : null;
+    }
+
+    /**
+     * The files that were written to a directory, with their git blob ids.
+     */
+    private List<TreeFile> listFiles(Path directory) throws IOException {
+        List<TreeFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory);
+             ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                String relativePath = StreamSupport.stream(directory.relativize(path).spliterator(), false)
+                        .map(Path::toString)
+                        .collect(Collectors.joining("/"));
+                FileMode fileMode = Files.isExecutable(path) ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE;
+                files.add(new TreeFile(relativePath, fileMode,
+                        formatter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(path))));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The integrity of the files of a worktree, as they were written (the same as {@link DigestUtils#digestDirectory}
+     * gives, without reading them again).
+     */
+    public static Optional<String> readIntegrity(Path tree) {
+        Path integrityFile = tree.resolve(INTEGRITY);
+        try {
+            return Files.isRegularFile(integrityFile)
+                    ? Optional.of(Files.readString(integrityFile).trim())
+                    : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void writeIntegrity(Path staging, Map<String, String> fileDigests) throws IOException {
+        Files.writeString(staging.resolve(INTEGRITY), DigestUtils.digestFiles(fileDigests));
+    }
+
+    /**
+     * Move a fully written directory into place as the tree, all at once, and make it read-only.
+     */
+    private void publishTree(Path staging, Path tree) throws IOException {
+        try {
+            Files.move(staging, tree, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.isDirectory(tree)) {
+                throw e;
+            }
+            // Another sync wrote the same tree first.
+            return;
+        }
+
+        StorageUtils.setReadOnly(tree);
+    }
+
+    private void linkCommit(Path commitLink, Path tree) throws IOException {
+        Files.createDirectories(commitLink.getParent());
+        Path temporaryLink = commitLink.resolveSibling("." + commitLink.getFileName() + "." + UUID.randomUUID());
+        Files.createSymbolicLink(temporaryLink, commitLink.getParent().relativize(tree));
+        Files.move(temporaryLink, commitLink, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static class TreeFile {
+
+        private final String path;
+        private final FileMode mode;
+        private final ObjectId objectId;
+
+        private TreeFile(String path, FileMode mode, ObjectId objectId) {
+            this.path = path;
+            this.mode = mode;
+            this.objectId = objectId;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.protop.core.grpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.protop.registry.data.Package;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes a server-streamed response of data chunks as an input stream, so that the data can be consumed
+ * while it is still arriving.
+ *
+ * Inbound flow control is manual: only a small window of chunks is requested from the server, and another
+ * chunk is requested each time the reader takes one. Memory use therefore stays the same no matter how big
+ * the response is.
+ *
+ * Since the reader sets the pace, the call itself has no deadline; instead, if an idle timeout is given, the call is
+ * cancelled once the server doesn't send the next chunk (or the first one) in time.
+ */
+public class DataChunkInputStream<ReqT> extends InputStream
+        implements ClientResponseObserver<ReqT, Package.DataChunk> {
+
+    private static final int WINDOW = 4;
+    private static final Object END = new Object();
+
+    // Bounded by the flow control window (plus the final completion or error).
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+    @Nullable
+    private final Duration idleTimeout;
+
+    private volatile ClientCallStreamObserver<ReqT> requestStream;
+    private InputStream current;
+    private boolean started;
+    private boolean finished;
+
+    public DataChunkInputStream() {
+        this(null);
+    }
+
+    public DataChunkInputStream(@Nullable Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<ReqT> requestStream) {
+        this.requestStream = requestStream;
+        requestStream.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void onNext(Package.DataChunk value) {
+        received.add(value.getData());
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        received.add(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        received.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return (count == -1) ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (Objects.isNull(current) || current.available() == 0) {
+            if (finished) {
+                return -1;
+            }
+            Object next = take();
+            if (next instanceof ByteString) {
+                current = ((ByteString) next).newInput();
+                requestStream.request(1);
+            } else if (next instanceof Throwable) {
+                finished = true;
+                throw new IOException("Failed to retrieve data.", (Throwable) next);
+            } else {
+                finished = true;
+                return -1;
+            }
+        }
+
+        return current.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            if (Objects.nonNull(requestStream)) {
+                requestStream.cancel("Stream closed before all data was read.", null);
+            }
+        }
+    }
+
+    private Object take() throws IOException {
+        if (!started) {
+            // The call itself requests the first chunk; open up the rest of the window.
+            started = true;
+            requestStream.request(WINDOW - 1);
+        }
+
+        try {
+            if (Objects.isNull(idleTimeout)) {
+                return received.take();
+            }
+            Object next = received.poll(idleTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (Objects.isNull(next)) {
+                close();
+                throw new IOException(String.format("No data was received for %s.", idleTimeout));
+            }
+            return next;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data.");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.protop.core.grpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.protop.registry.data.Package;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * The server side counterpart of {@link DataChunkInputStream}: writes a server-streamed response as data chunks.
+ *
+ * Outbound flow control is respected, i.e. writing blocks while the client isn't ready for more, so memory use stays
+ * the same no matter how big the response is. Since the call's own callbacks (including readiness) aren't delivered
+ * while its handler is running, this must be written to on another thread than the handler's.
+ */
+public class DataChunkOutputStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long READINESS_TIMEOUT_MILLIS = 1000;
+
+    private final ServerCallStreamObserver<Package.DataChunk> responseStream;
+    private final Object readiness = new Object();
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private volatile boolean cancelled;
+
+    /**
+     * Must be created while the handler of the call is running.
+     */
+    public DataChunkOutputStream(StreamObserver<Package.DataChunk> responseObserver) {
+        this.responseStream = (ServerCallStreamObserver<Package.DataChunk>) responseObserver;
+        responseStream.setOnReadyHandler(this::signal);
+        responseStream.setOnCancelHandler(() -> {
+            cancelled = true;
+            signal();
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == buffer.length) {
+                flush();
+            }
+            int copied = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        awaitReady();
+        responseStream.onNext(Package.DataChunk.newBuilder()
+                .setData(ByteString.copyFrom(buffer, 0, count))
+                .build());
+        count = 0;
+    }
+
+    /**
+     * Writes what is left; the response itself is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void awaitReady() throws IOException {
+        synchronized (readiness) {
+            while (!responseStream.isReady()) {
+                if (cancelled) {
+                    throw new IOException("The call was cancelled by the client.");
+                }
+                try {
+                    readiness.wait(READINESS_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the client.");
+                }
+            }
+        }
+        if (cancelled) {
+            throw new IOException("The call was cancelled by the client.");
+        }
+    }
+
+    private void signal() {
+        synchronized (readiness) {
+            readiness.notifyAll();
+        }
+    }
+}
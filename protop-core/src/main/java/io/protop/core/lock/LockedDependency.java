@@ -0,0 +1,67 @@
+package io.protop.core.lock;
+
+import com.fasterxml.jackson.annotation.*;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.RevisionUtils;
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single dependency as it was ultimately resolved.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"source", "commit", "integrity", "dependencies"})
+public class LockedDependency {
+
+    @NotNull
+    @JsonProperty("source")
+    private final String source;
+
+    // Only applies to dependencies from git repositories.
+    @Nullable
+    @JsonProperty("commit")
+    private final String commit;
+
+    @Nullable
+    @JsonProperty("integrity")
+    private final String integrity;
+
+    @NotNull
+    @JsonProperty("dependencies")
+    private final List<PackageId> dependencies;
+
+    @JsonCreator
+    LockedDependency(@JsonProperty("source") @NotNull String source,
+                     @JsonProperty("commit") @Nullable String commit,
+                     @JsonProperty("integrity") @Nullable String integrity,
+                     @JsonProperty("dependencies") @Nullable List<PackageId> dependencies) {
+        this.source = source;
+        this.commit = commit;
+        this.integrity = integrity;
+        this.dependencies = Objects.isNull(dependencies) ? new ArrayList<>() : dependencies;
+    }
+
+    public static LockedDependency of(RevisionSource revisionSource,
+                                      @Nullable String commit,
+                                      @Nullable String integrity,
+                                      Collection<PackageId> dependencies) {
+        List<PackageId> sortedDependencies = new ArrayList<>(dependencies);
+        sortedDependencies.sort(Comparator.comparing(PackageId::toString));
+        return new LockedDependency(RevisionUtils.toString(revisionSource), commit, integrity, sortedDependencies);
+    }
+
+    @JsonIgnore
+    public RevisionSource getRevisionSource() {
+        return RevisionUtils.fromString(source);
+    }
+}
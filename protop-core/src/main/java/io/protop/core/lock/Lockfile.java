@@ -0,0 +1,123 @@
+package io.protop.core.lock;
+
+import com.fasterxml.jackson.annotation.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.protop.core.Environment;
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.RevisionUtils;
+import lombok.Getter;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Records the outcome of resolving a project's dependency graph (protop.lock), so that the same
+ * dependencies can be synced again later without resolving the graph.
+ */
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"lockfileVersion", "requires", "dependencies"})
+public class Lockfile {
+
+    private static final Logger logger = Logger.getLogger(Lockfile.class);
+    public static final String PROTOP_LOCK = "protop.lock";
+    private static final int LOCKFILE_VERSION = 1;
+
+    @JsonProperty("lockfileVersion")
+    private final int lockfileVersion;
+
+    // The project's own dependencies at the time the lockfile was written.
+    @NotNull
+    @JsonProperty("requires")
+    private final Map<PackageId, String> requires;
+
+    @NotNull
+    @JsonProperty("dependencies")
+    private final Map<PackageId, LockedDependency> dependencies;
+
+    @JsonCreator
+    Lockfile(@JsonProperty("lockfileVersion") int lockfileVersion,
+             @JsonProperty("requires") Map<PackageId, String> requires,
+             @JsonProperty("dependencies") Map<PackageId, LockedDependency> dependencies) {
+        this.lockfileVersion = lockfileVersion;
+        this.requires = Objects.isNull(requires) ? new LinkedHashMap<>() : requires;
+        this.dependencies = Objects.isNull(dependencies) ? new LinkedHashMap<>() : dependencies;
+    }
+
+    public static Lockfile of(Map<PackageId, RevisionSource> projectDependencies,
+                              Map<PackageId, LockedDependency> lockedDependencies) {
+        Map<PackageId, String> requires = new LinkedHashMap<>();
+        sorted(projectDependencies.keySet()).forEach(packageId ->
+                requires.put(packageId, RevisionUtils.toString(projectDependencies.get(packageId))));
+
+        Map<PackageId, LockedDependency> dependencies = new LinkedHashMap<>();
+        sorted(lockedDependencies.keySet()).forEach(packageId ->
+                dependencies.put(packageId, lockedDependencies.get(packageId)));
+
+        return new Lockfile(LOCKFILE_VERSION, requires, dependencies);
+    }
+
+    public static Optional<Lockfile> from(Path directory) {
+        Path lockfilePath = directory.resolve(PROTOP_LOCK);
+
+        if (!Files.isRegularFile(lockfilePath)) {
+            return Optional.empty();
+        }
+
+        ObjectMapper objectMapper = Environment.getInstance().getObjectMapper();
+
+        try {
+            return Optional.of(objectMapper.readValue(lockfilePath.toFile(), Lockfile.class));
+        } catch (IOException e) {
+            String message = "Failed to parse lockfile.";
+            logger.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    /**
+     * @return whether the lockfile was written for exactly these project dependencies.
+     */
+    public boolean isUpToDate(Map<PackageId, RevisionSource> projectDependencies) {
+        Map<PackageId, String> current = new HashMap<>();
+        projectDependencies.forEach((packageId, revisionSource) ->
+                current.put(packageId, RevisionUtils.toString(revisionSource)));
+        return Objects.equals(current, new HashMap<>(requires));
+    }
+
+    /**
+     * @return the locked dependencies reachable from the given packages (including themselves).
+     */
+    public Map<PackageId, LockedDependency> closureOf(Collection<PackageId> packageIds) {
+        Map<PackageId, LockedDependency> closure = new HashMap<>();
+        Queue<PackageId> reachable = new LinkedList<>(packageIds);
+
+        while (!reachable.isEmpty()) {
+            PackageId packageId = reachable.poll();
+            if (closure.containsKey(packageId)) {
+                continue;
+            }
+
+            LockedDependency lockedDependency = dependencies.get(packageId);
+            if (Objects.isNull(lockedDependency)) {
+                throw new LockfileOutOfDate(String.format(
+                        "%s is not in the lockfile; sync without --frozen to update it.", packageId));
+            }
+            closure.put(packageId, lockedDependency);
+            reachable.addAll(lockedDependency.getDependencies());
+        }
+
+        return closure;
+    }
+
+    private static List<PackageId> sorted(Collection<PackageId> packageIds) {
+        List<PackageId> sorted = new ArrayList<>(packageIds);
+        sorted.sort(Comparator.comparing(PackageId::toString));
+        return sorted;
+    }
+}
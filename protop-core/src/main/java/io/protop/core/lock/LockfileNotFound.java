@@ -0,0 +1,16 @@
+package io.protop.core.lock;
+
+import io.protop.core.error.ServiceException;
+import io.protop.core.error.ServiceExceptionConsumer;
+
+public class LockfileNotFound extends ServiceException {
+
+    public LockfileNotFound() {
+        super("Did not find a lockfile (protop.lock); sync without --frozen to create one.");
+    }
+
+    @Override
+    public void accept(ServiceExceptionConsumer consumer) {
+        consumer.consume(this);
+    }
+}
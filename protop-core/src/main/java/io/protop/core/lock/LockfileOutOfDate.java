@@ -0,0 +1,21 @@
+package io.protop.core.lock;
+
+import io.protop.core.error.ServiceException;
+import io.protop.core.error.ServiceExceptionConsumer;
+
+public class LockfileOutOfDate extends ServiceException {
+
+    public LockfileOutOfDate() {
+        super("The lockfile (protop.lock) does not match the project dependencies; " +
+                "sync without --frozen to update it.");
+    }
+
+    public LockfileOutOfDate(String message) {
+        super(message);
+    }
+
+    @Override
+    public void accept(ServiceExceptionConsumer consumer) {
+        consumer.consume(this);
+    }
+}
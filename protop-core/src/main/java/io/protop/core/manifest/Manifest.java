@@ -13,6 +13,7 @@ import lombok.experimental.SuperBuilder;
 import javax.validation.constraints.NotNull;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -106,4 +107,19 @@ public class Manifest {
             throw new RuntimeException(message, e);
         }
     }
+
+    /**
+     * Parse a manifest that isn't in a project directory, i.e. one read straight from a git repository.
+     */
+    public static Manifest from(InputStream inputStream) {
+        ObjectMapper objectMapper = Environment.getInstance().getObjectMapper();
+
+        try {
+            return objectMapper.readValue(inputStream, Manifest.class);
+        } catch (IOException e) {
+            String message = "Failed to parse configuration.";
+            logger.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+    }
 }
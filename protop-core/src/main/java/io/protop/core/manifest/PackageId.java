@@ -1,6 +1,7 @@
 package io.protop.core.manifest;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Strings;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -53,6 +54,7 @@ public class PackageId {
         return new AbstractMap.SimpleImmutableEntry<>(values[0], values[1]);
     }
 
+    @JsonValue
     @Override
     public String toString() {
         return String.join(SLASH, organization, project);
@@ -13,6 +13,9 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -27,9 +30,9 @@ public class GitSource implements RevisionSource {
     @NotNull
     private final String rawUrl;
 
+    // A branch, tag or (full) commit SHA; the default branch of the repository if absent.
     @Nullable
-    @EqualsAndHashCode.Exclude
-    private String branchName;
+    private String ref;
 
     @JsonValue
     @NotNull
@@ -40,23 +43,27 @@ public class GitSource implements RevisionSource {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(rawUrl);
-        if (!Strings.isNullOrEmpty(branchName)) {
-            builder.append(AT).append(branchName);
+        if (!Strings.isNullOrEmpty(ref)) {
+            builder.append(AT).append(ref);
         }
         return builder.toString();
     }
 
+    /**
+     * The inverse of {@link #fromRawPrefixedInput(String)}, using the generic git prefix.
+     */
+    public String toRawPrefixedInput() {
+        return Platform.GIT.getPrefix() + toString();
+    }
+
     public static GitSource fromRawPrefixedInput(final String input) {
         for (Platform platform : Platform.values()) {
-            String[] segments = input.split(AT);
-            String repo = segments[0];
-
-            String branchName = (segments.length > 1)
-                    ? segments[1]
-                    : null;
-
-            if (platform.prefixes(repo)) {
-                return new GitSource(platform.rawUrlFrom(repo), branchName);
+            if (platform.prefixes(input)) {
+                String location = input.substring(platform.getPrefix().length());
+                int refIndex = findRefSeparator(location);
+                String repo = (refIndex < 0) ? location : location.substring(0, refIndex);
+                String ref = (refIndex < 0) ? null : Strings.emptyToNull(location.substring(refIndex + 1));
+                return new GitSource(platform.rawUrlFrom(platform.getPrefix() + repo), ref);
             }
         }
 
@@ -67,6 +74,27 @@ public class GitSource implements RevisionSource {
                         .collect(Collectors.joining(",")));
     }
 
+    /**
+     * The "@" before the ref in a location (without its platform prefix), if any.
+     * An "@" can also be part of the URL itself (i.e. "git@github.com:org/repo" or
+     * "https://user@host/org/repo"), so it only counts if the repository path has begun before it.
+     */
+    private static int findRefSeparator(final String input) {
+        int index = input.lastIndexOf(AT);
+        if (index < 0) {
+            return -1;
+        }
+
+        String repo = input.substring(0, index);
+        int schemeIndex = repo.indexOf("://");
+        String path = (schemeIndex < 0) ? repo : repo.substring(schemeIndex + 3);
+        if (schemeIndex < 0 && repo.contains(AT)) {
+            // i.e. "git@github.com:org/repo"; the path starts after the user.
+            path = repo.substring(repo.lastIndexOf(AT) + 1);
+        }
+        return (path.contains("/") || path.contains(":")) ? index : -1;
+    }
+
     public static GitSource fromEncodedUrl(final String encodedUrl) {
         String decodedUrl = URLDecoder.decode(encodedUrl, StandardCharsets.UTF_8);
         return new GitSource(decodedUrl);
@@ -77,29 +105,76 @@ public class GitSource implements RevisionSource {
         return URLEncoder.encode(rawUrl, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Whether the repository is on a platform that serves archives of its commits over HTTP.
+     */
+    public boolean hasArchives() {
+        return Arrays.stream(Platform.values())
+                .anyMatch(platform -> platform.repositoryPathOf(rawUrl).isPresent());
+    }
+
+    /**
+     * The URL of a g-zipped tarball of the commit, if the repository is on a platform that serves one.
+     *
+     * @param baseUrls overrides of the platforms' base URLs (e.g. for a mirror), keyed by their prefix without
+     *                 the colon (i.e. "gh").
+     */
+    public Optional<String> getArchiveUrl(String commit, Map<String, String> baseUrls) {
+        for (Platform platform : Platform.values()) {
+            Optional<String> path = platform.repositoryPathOf(rawUrl);
+            if (path.isPresent()) {
+                String key = platform.getPrefix().substring(0, platform.getPrefix().length() - 1);
+                String baseUrl = Optional.ofNullable(baseUrls.get(key))
+                        .orElse(platform.getArchiveBaseUrl())
+                        .replaceAll("/+$", "");
+                return Optional.of(platform.getArchiveUrlProducer().produce(baseUrl, path.get(), commit));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @FunctionalInterface
+    private interface ArchiveUrlProducer {
+
+        String produce(String baseUrl, String repositoryPath, String commit);
+    }
+
     @Getter
     @AllArgsConstructor
     private enum Platform {
 
         // Any valid git repository; the input should be the full URL
-        GIT("Git", "git:", url -> url),
+        GIT("Git", "git:", url -> url, null, null),
 
         // Github
         GITHUB("Github", "gh:", path ->
-                String.format("https://github.com/%s", path)),
+                String.format("https://github.com/%s", path),
+                "https://codeload.github.com",
+                (baseUrl, path, commit) -> String.format("%s/%s/tar.gz/%s", baseUrl, path, commit)),
 
         // Gitlab
         GITLAB("Gitlab", "gl:", path ->
-                String.format("https://gitlab.com/%s", path)),
+                String.format("https://gitlab.com/%s", path),
+                "https://gitlab.com",
+                (baseUrl, path, commit) -> String.format("%s/api/v4/projects/%s/repository/archive.tar.gz?sha=%s",
+                        baseUrl, URLEncoder.encode(path, StandardCharsets.UTF_8), commit)),
 
         // Bitbucket
         BITBUCKET("Bitbucket", "bb:", path ->
-                String.format("https://bitbucket.org/%s", path));
+                String.format("https://bitbucket.org/%s", path),
+                "https://bitbucket.org",
+                (baseUrl, path, commit) -> String.format("%s/%s/get/%s.tar.gz", baseUrl, path, commit));
 
         private final String name;
         private final String prefix;
         private final Function<String, String> urlProducer;
 
+        // Only for platforms that serve archives.
+        @Nullable
+        private final String archiveBaseUrl;
+        @Nullable
+        private final ArchiveUrlProducer archiveUrlProducer;
+
         public boolean prefixes(final String prefixedInput) {
             return prefixedInput.startsWith(prefix);
         }
@@ -119,5 +194,22 @@ public class GitSource implements RevisionSource {
         public String rawUrlFrom(final String prefixedInput) {
             return urlProducer.apply(removePrefix(prefixedInput));
         }
+
+        /**
+         * The "org/repo" part of a URL of this platform, if the platform serves archives.
+         */
+        private Optional<String> repositoryPathOf(final String rawUrl) {
+            if (Objects.isNull(archiveUrlProducer)) {
+                return Optional.empty();
+            }
+            String base = urlProducer.apply("");
+            if (!rawUrl.startsWith(base)) {
+                return Optional.empty();
+            }
+            String path = rawUrl.substring(base.length())
+                    .replaceAll("/+$", "")
+                    .replaceAll("\\.git$", "");
+            return path.isEmpty() ? Optional.empty() : Optional.of(path);
+        }
     }
 }
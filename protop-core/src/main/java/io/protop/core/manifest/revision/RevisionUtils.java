@@ -25,6 +25,16 @@ public class RevisionUtils {
 
     }
 
+    /**
+     * The inverse of {@link #fromString(String)}.
+     */
+    public static String toString(final RevisionSource revisionSource) {
+        if (revisionSource instanceof GitSource) {
+            return ((GitSource) revisionSource).toRawPrefixedInput();
+        }
+        return revisionSource.toString();
+    }
+
     private static Optional<GitSource> mapStringToGitUrl(final String input) {
         if (Strings.isNullOrEmpty(input)){
             return Optional.empty();
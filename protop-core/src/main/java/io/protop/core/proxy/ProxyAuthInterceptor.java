@@ -0,0 +1,128 @@
+package io.protop.core.proxy;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.protop.core.grpc.AuthTokenCallCredentials;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.logs.Logger;
+import io.protop.registry.domain.Package;
+import io.protop.registry.services.AuthServiceGrpc;
+import io.protop.registry.services.RetrievalServiceGrpc;
+import io.protop.registry.services.Retrieve;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Only lets clients with a token the upstream registry accepts use the proxy, since the proxy retrieves from the
+ * registry with its own credentials. Tokens are checked by making a request to the registry with them, and the
+ * answer is remembered for a while so that not every call is checked again. Logins are let through, since that is
+ * how clients get a token.
+ */
+class ProxyAuthInterceptor implements ServerInterceptor {
+
+    private static final Logger logger = Logger.getLogger(ProxyAuthInterceptor.class);
+
+    private static final long VALIDITY_MINUTES = 5;
+    private static final long VALIDATION_TIMEOUT_SECONDS = 30;
+    private static final long MAX_TOKENS = 10_000;
+
+    // The registry checks the token before it looks the version up, so it doesn't matter whether it exists.
+    private static final Retrieve.PackageQuery PROBE = Retrieve.PackageQuery.newBuilder()
+            .setPackageId("protop/proxy")
+            .setVersion("0.0.0")
+            .build();
+
+    private final GrpcService grpcService;
+    private final URL upstreamUrl;
+
+    // Token → whether the registry accepted it.
+    private final Cache<String, Boolean> validated = CacheBuilder.newBuilder()
+            .expireAfterWrite(VALIDITY_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(MAX_TOKENS)
+            .build();
+
+    ProxyAuthInterceptor(GrpcService grpcService, URL upstreamUrl) {
+        this.grpcService = grpcService;
+        this.upstreamUrl = upstreamUrl;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (AuthServiceGrpc.SERVICE_NAME.equals(call.getMethodDescriptor().getServiceName())) {
+            return next.startCall(call, headers);
+        }
+
+        String token = headers.get(AuthTokenCallCredentials.AUTHORIZATION_METADATA_KEY);
+        Status status;
+        if (Strings.isNullOrEmpty(token)) {
+            status = Status.UNAUTHENTICATED.withDescription("Log in to the proxy first.");
+        } else {
+            try {
+                // Concurrent calls with the same token share a single check.
+                status = validated.get(token, () -> validate(token))
+                        ? Status.OK
+                        : Status.UNAUTHENTICATED.withDescription("The registry did not accept the token.");
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                logger.error("Failed to check a token with the upstream registry.", e.getCause());
+                status = Status.UNAVAILABLE.withDescription("Failed to check the token with the upstream registry.");
+            }
+        }
+
+        if (!status.isOk()) {
+            call.close(status, new Metadata());
+            return new ServerCall.Listener<>() {};
+        }
+        return next.startCall(call, headers);
+    }
+
+    /**
+     * @return whether the registry accepts the token; an error if that couldn't be found out.
+     */
+    private boolean validate(String token) throws Exception {
+        CompletableFuture<Status> result = new CompletableFuture<>();
+        RetrievalServiceGrpc.newStub(grpcService.getChannel(upstreamUrl))
+                .withCallCredentials(new AuthTokenCallCredentials(token))
+                .withDeadlineAfter(VALIDATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .retrieveMetadata(PROBE, new StreamObserver<>() {
+                    @Override
+                    public void onNext(Package.PackageMetadata value) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        result.complete(Status.fromThrowable(t));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        result.complete(Status.OK);
+                    }
+                });
+
+        Status status = result.get();
+        switch (status.getCode()) {
+            case OK:
+            case NOT_FOUND:
+                return true;
+            case UNAUTHENTICATED:
+            case PERMISSION_DENIED:
+                return false;
+            default:
+                // Not remembered, so it is checked again next time.
+                throw status.asException();
+        }
+    }
+}
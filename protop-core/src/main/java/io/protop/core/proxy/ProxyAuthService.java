@@ -0,0 +1,28 @@
+package io.protop.core.proxy;
+
+import io.grpc.stub.StreamObserver;
+import io.protop.core.grpc.GrpcService;
+import io.protop.registry.services.Auth;
+import io.protop.registry.services.AuthServiceGrpc;
+
+import java.net.URL;
+
+/**
+ * Relays logins to the upstream registry, so that clients log in to the proxy just as they would to the registry.
+ */
+class ProxyAuthService extends AuthServiceGrpc.AuthServiceImplBase {
+
+    private final GrpcService grpcService;
+    private final URL upstreamUrl;
+
+    ProxyAuthService(GrpcService grpcService, URL upstreamUrl) {
+        this.grpcService = grpcService;
+        this.upstreamUrl = upstreamUrl;
+    }
+
+    @Override
+    public void login(Auth.LoginRequest request, StreamObserver<Auth.LoginResponse> responseObserver) {
+        AuthServiceGrpc.newStub(grpcService.getChannel(upstreamUrl))
+                .login(request, responseObserver);
+    }
+}
@@ -0,0 +1,142 @@
+package io.protop.core.proxy;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import io.protop.core.cache.CacheIndex;
+import io.protop.core.cache.CacheService;
+import io.protop.core.grpc.DataChunkOutputStream;
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionUtils;
+import io.protop.core.manifest.revision.Version;
+import io.protop.core.registry.RegistryRouter;
+import io.protop.registry.data.Package.DataChunk;
+import io.protop.registry.domain.Package;
+import io.protop.registry.services.RetrievalServiceGrpc;
+import io.protop.registry.services.Retrieve;
+import io.protop.utils.ArchiveUtils;
+import io.reactivex.Maybe;
+import io.reactivex.schedulers.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Answers retrievals from the system-wide cache, and caches whatever isn't there yet from the upstream registry
+ * first. Clients asking for the same version at the same time share a single upstream request.
+ */
+class ProxyRetrievalService extends RetrievalServiceGrpc.RetrievalServiceImplBase {
+
+    private static final Logger logger = Logger.getLogger(ProxyRetrievalService.class);
+
+    private final CacheService cacheService;
+    private final RegistryRouter upstream;
+
+    // Metadata being retrieved from upstream right now, so that everyone who asks for it at the same time shares it.
+    private final ConcurrentMap<Map.Entry<PackageId, Version>, Maybe<Package.PackageMetadata>> metadataRequests =
+            new ConcurrentHashMap<>();
+
+    ProxyRetrievalService(CacheService cacheService, RegistryRouter upstream) {
+        this.cacheService = cacheService;
+        this.upstream = upstream;
+    }
+
+    @Override
+    public void retrieveMetadata(Retrieve.PackageQuery request,
+                                 StreamObserver<Package.PackageMetadata> responseObserver) {
+        PackageId packageId;
+        Version version;
+        try {
+            packageId = PackageId.from(request.getPackageId());
+            version = Version.of(request.getVersion());
+        } catch (RuntimeException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        Optional<CacheIndex.Entry> cached = cacheService.getIndex().get(packageId, version);
+        if (cached.isPresent()) {
+            logger.info("Serving the metadata of {} {} from the cache.", packageId, version);
+            responseObserver.onNext(toMetadata(cached.get().toManifest(packageId, version)));
+            responseObserver.onCompleted();
+            return;
+        }
+
+        Map.Entry<PackageId, Version> key = Map.entry(packageId, version);
+        Maybe.defer(() -> metadataRequests.computeIfAbsent(key, k -> upstream.retrieveMetadata(packageId, version)
+                .doFinally(() -> metadataRequests.remove(key))
+                .cache()))
+                .subscribe(metadata -> {
+                    responseObserver.onNext(metadata);
+                    responseObserver.onCompleted();
+                }, t -> {
+                    logger.error(String.format("Failed to retrieve the metadata of %s %s.", packageId, version), t);
+                    responseObserver.onError(Status.UNAVAILABLE
+                            .withDescription("Failed to retrieve the metadata from the upstream registry.")
+                            .asRuntimeException());
+                }, responseObserver::onCompleted);
+    }
+
+    @Override
+    public void retrieve(Retrieve.PackageQuery request, StreamObserver<DataChunk> responseObserver) {
+        PackageId packageId;
+        Version version;
+        try {
+            packageId = PackageId.from(request.getPackageId());
+            version = Version.of(request.getVersion());
+        } catch (RuntimeException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        // The tarball is written on another thread, since readiness isn't signalled while this handler runs.
+        DataChunkOutputStream tarball = new DataChunkOutputStream(responseObserver);
+        cacheService.getOrRetrieve(packageId, version, null, () -> upstream.retrieveTarball(packageId, version))
+                .subscribeOn(Schedulers.io())
+                .subscribe(path -> {
+                    try {
+                        cacheService.markUsed(path);
+                        ArchiveUtils.writeTarGz(path, tarball);
+                        tarball.close();
+                        responseObserver.onCompleted();
+                    } catch (IOException e) {
+                        fail(packageId, version, tarball, responseObserver, e);
+                    }
+                }, t -> fail(packageId, version, tarball, responseObserver, t),
+                        responseObserver::onCompleted);
+    }
+
+    private void fail(PackageId packageId,
+                      Version version,
+                      DataChunkOutputStream tarball,
+                      StreamObserver<DataChunk> responseObserver,
+                      Throwable t) {
+        if (tarball.isCancelled()) {
+            logger.info("Retrieval of {} {} was cancelled by the client.", packageId, version);
+            return;
+        }
+        logger.error(String.format("Failed to serve %s %s.", packageId, version), t);
+        responseObserver.onError(Status.UNAVAILABLE
+                .withDescription(String.format("Failed to serve %s %s.", packageId, version))
+                .asRuntimeException());
+    }
+
+    private static Package.PackageMetadata toMetadata(Manifest manifest) {
+        Package.PackageMetadata.Builder metadata = Package.PackageMetadata.newBuilder()
+                .setOrganization(manifest.getOrganization())
+                .setProject(manifest.getName())
+                .setVersion(manifest.getVersion().toString());
+        Optional.ofNullable(manifest.getDependencies()).ifPresent(dependencies ->
+                dependencies.getValues().forEach((packageId, revisionSource) ->
+                        metadata.addDependencies(Package.Dependency.newBuilder()
+                                .setPackageId(packageId.toString())
+                                .setSource(RevisionUtils.toString(revisionSource))
+                                .build())));
+        return metadata.build();
+    }
+}
@@ -0,0 +1,60 @@
+package io.protop.core.proxy;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.protop.core.Context;
+import io.protop.core.auth.AuthService;
+import io.protop.core.cache.CacheService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.logs.Logger;
+import io.protop.core.registry.RegistryRouter;
+import io.protop.core.storage.StorageService;
+
+import java.io.IOException;
+
+/**
+ * A pull-through caching proxy of a registry: serves the same retrieval API as the registry itself, from the
+ * system-wide cache of this machine, so that each version is only retrieved from the registry once no matter how
+ * many clients sync it.
+ */
+public class ProxyService {
+
+    private static final Logger logger = Logger.getLogger(ProxyService.class);
+
+    private final AuthService authService;
+    private final Context context;
+    private final CacheService cacheService;
+    private final GrpcService grpcService;
+
+    public ProxyService(AuthService authService,
+                        StorageService storageService,
+                        Context context,
+                        GrpcService grpcService) {
+        this.authService = authService;
+        this.context = context;
+        this.cacheService = new CacheService(storageService);
+        this.grpcService = grpcService;
+    }
+
+    /**
+     * Start serving on the port, proxying the registry of the runtime configuration.
+     * @param open whether to serve anyone, rather than only clients with a token the registry accepts.
+     * @return the server, which keeps running until it is shut down.
+     */
+    public Server start(int port, boolean open) throws IOException {
+        RegistryRouter upstream = RegistryRouter.from(authService, grpcService, context.getRc());
+
+        ServerBuilder<?> serverBuilder = ServerBuilder.forPort(port)
+                .addService(new ProxyRetrievalService(cacheService, upstream))
+                .addService(new ProxyAuthService(grpcService, upstream.getPrimaryUrl()));
+        if (open) {
+            logger.warn("Serving without authentication; anyone who can reach port {} can retrieve from {}.",
+                    port, upstream.getUrls());
+        } else {
+            serverBuilder.intercept(new ProxyAuthInterceptor(grpcService, upstream.getPrimaryUrl()));
+        }
+        Server server = serverBuilder.build().start();
+        logger.info("Proxying {} on port {}.", upstream.getUrls(), server.getPort());
+        return server;
+    }
+}
@@ -72,12 +72,15 @@ public class ProjectPublisherImpl implements ProjectPublisher {
                     .setManifest(publishableManifest)
                     .build());
 
+            logger.info("Publishing archive with integrity {}.", archiveDetails.getIntegrity());
             FileInputStream fis = new FileInputStream(archiveDetails.getLocation().toFile());
             byte[] buffer = new byte[512];
-            while (fis.read(buffer) > 0) {
+            int read;
+            while ((read = fis.read(buffer)) > 0) {
+                // Only what was read, or the last chunk pads the archive (and breaks its digest).
                 requestObserver.onNext(Publish.PublishRequest.newBuilder()
                         .setData(Package.DataChunk.newBuilder()
-                                .setData(ByteString.copyFrom(buffer))
+                                .setData(ByteString.copyFrom(buffer, 0, read))
                                 .build())
                         .build());
             }
@@ -7,6 +7,7 @@ import io.protop.core.logs.Logger;
 import io.protop.core.manifest.Manifest;
 import io.protop.core.manifest.ManifestNotFound;
 import io.protop.core.storage.Storage;
+import io.protop.utils.DigestUtils;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -21,8 +22,11 @@ import javax.validation.constraints.NotNull;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -71,11 +75,14 @@ public class PublishableProject {
         Path destination = Storage.pathOf(Storage.GlobalDirectory.TEMP_PUBLICATION_CACHE)
                 .resolve(UUID.randomUUID().toString() + ".tar.gz");
         logger.info("Compressing {} files.", files.size());
-        try {
-            long unpackedSize = 0;
-            OutputStream outputStream = java.nio.file.Files.newOutputStream(destination);
-            OutputStream gZipOutputStream = new GzipCompressorOutputStream(outputStream);
-            TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(gZipOutputStream);
+        // The archive is digested as it is written, rather than read back once it is done.
+        MessageDigest integrityDigest = DigestUtils.newDigest();
+        MessageDigest shasumDigest = DigestUtils.newShasumDigest();
+        long unpackedSize = 0;
+        try (OutputStream outputStream = new DigestOutputStream(new DigestOutputStream(
+                     java.nio.file.Files.newOutputStream(destination), integrityDigest), shasumDigest);
+             TarArchiveOutputStream tarArchiveOutputStream = new TarArchiveOutputStream(
+                     new GzipCompressorOutputStream(outputStream))) {
 
             // http://commons.apache.org/proper/commons-compress/examples.html
             for (File file : files) {
@@ -83,25 +90,25 @@ public class PublishableProject {
                 tarArchiveEntry.setSize(file.length());
                 unpackedSize += file.length();
                 tarArchiveOutputStream.putArchiveEntry(tarArchiveEntry);
-                IOUtils.copy(new FileInputStream(file), tarArchiveOutputStream);
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    IOUtils.copy(inputStream, tarArchiveOutputStream);
+                }
                 tarArchiveOutputStream.closeArchiveEntry();
             }
-
-            gZipOutputStream.close();
-            outputStream.close();
-
-            return CompressedArchiveDetails.builder()
-                    .location(destination)
-                    .filecount(files.size())
-                    .integrity("TODO")
-                    .shasum("TODO")
-                    .unpackedSize(unpackedSize)
-                    .build();
+            tarArchiveOutputStream.finish();
         } catch (IOException e) {
             String message = "Failed to create package.";
             logger.error(message, e);
             throw new RuntimeException(message, e);
         }
+
+        return CompressedArchiveDetails.builder()
+                .location(destination)
+                .filecount(files.size())
+                .integrity(DigestUtils.toIntegrity(integrityDigest.digest()))
+                .shasum(DigestUtils.toHex(shasumDigest.digest()))
+                .unpackedSize(unpackedSize)
+                .build();
     }
 
     private static Collection<File> getPublishableFiles(Path path) {
@@ -0,0 +1,41 @@
+package io.protop.core.registry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Keeps the latencies of the most recent requests of one kind, to tell how long a request usually takes.
+ */
+class LatencyTracker {
+
+    private static final int SAMPLES = 128;
+
+    // Fewer samples than this don't tell much about the tail.
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+    private int next;
+
+    synchronized void record(Duration latency) {
+        samples[next] = latency.toNanos();
+        next = (next + 1) % SAMPLES;
+        count = Math.min(count + 1, SAMPLES);
+    }
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.95.
+     * @return the latency below which the given share of the recent requests completed, unless there are too few of
+     * them yet.
+     */
+    synchronized Optional<Duration> getPercentile(double percentile) {
+        if (count < MIN_SAMPLES) {
+            return Optional.empty();
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+        return Optional.of(Duration.ofNanos(sorted[Math.max(0, index)]));
+    }
+}
@@ -0,0 +1,153 @@
+package io.protop.core.registry;
+
+import io.grpc.Channel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.protop.core.auth.AuthService;
+import io.protop.core.grpc.AuthTokenCallCredentials;
+import io.protop.core.grpc.DataChunkInputStream;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.DependencyMap;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.Version;
+import io.protop.registry.domain.Package;
+import io.protop.registry.services.RetrievalServiceGrpc;
+import io.protop.registry.services.Retrieve;
+import io.reactivex.Maybe;
+
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieves packages from a registry.
+ */
+public class RegistryClient {
+
+    private static final Logger logger = Logger.getLogger(RegistryClient.class);
+
+    private final AuthService authService;
+    private final GrpcService grpcService;
+    private final URL registryUrl;
+
+    // If set, a metadata call is abandoned once it takes longer than this, and a tarball once the registry takes
+    // longer than this to send its next (or first) chunk. Tarballs have no overall deadline, since the reader sets
+    // their pace.
+    @Nullable
+    private final Duration timeout;
+
+    private RetrievalServiceGrpc.RetrievalServiceStub retrievalServiceStub;
+
+    public RegistryClient(AuthService authService,
+                          GrpcService grpcService,
+                          URL registryUrl,
+                          @Nullable Duration timeout) {
+        this.authService = authService;
+        this.grpcService = grpcService;
+        this.registryUrl = registryUrl;
+        this.timeout = timeout;
+    }
+
+    public URL getRegistryUrl() {
+        return registryUrl;
+    }
+
+    /**
+     * Retrieve the metadata of a version, as the registry has it. The call is cancelled if this is disposed before
+     * it is done.
+     * @return the metadata, or nothing if the registry doesn't have the version.
+     */
+    public Maybe<Package.PackageMetadata> retrieveMetadata(PackageId packageId, Version version) {
+        return Maybe.create(emitter -> {
+            logger.info("Retrieving package manifest: {} {}", packageId, version);
+
+            getStubWithDeadline().retrieveMetadata(toQuery(packageId, version), new ClientResponseObserver<
+                    Retrieve.PackageQuery, Package.PackageMetadata>() {
+                @Override
+                public void beforeStart(ClientCallStreamObserver<Retrieve.PackageQuery> requestStream) {
+                    emitter.setCancellable(() -> requestStream.cancel("No longer needed.", null));
+                }
+
+                @Override
+                public void onNext(Package.PackageMetadata value) {
+                    logger.info("Received package metadata...");
+                    emitter.onSuccess(value);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    emitter.onError(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    logger.info("Did not find this package's manifest in the registry.");
+                    emitter.onComplete();
+                }
+            });
+        });
+    }
+
+    /**
+     * Retrieve the manifest of a version.
+     * @return the manifest, or nothing if the registry doesn't have the version.
+     */
+    public Maybe<Manifest> retrieveManifest(PackageId packageId, Version version) {
+        return retrieveMetadata(packageId, version)
+                .map(RegistryClient::toManifest);
+    }
+
+    /**
+     * Open the g-zipped tarball of a version. Chunks are read as they arrive rather than being collected in memory
+     * first; closing the stream early cancels the call.
+     */
+    public InputStream retrieveTarball(PackageId packageId, Version version) {
+        logger.info("Retrieving package: {} {}", packageId, version);
+        DataChunkInputStream<Retrieve.PackageQuery> tarball = new DataChunkInputStream<>(timeout);
+        getRetrievalServiceStub().retrieve(toQuery(packageId, version), tarball);
+        return tarball;
+    }
+
+    public static Manifest toManifest(Package.PackageMetadata metadata) {
+        return Manifest.builder()
+                .organization(metadata.getOrganization())
+                .name(metadata.getProject())
+                .version(Version.of(metadata.getVersion()))
+                .dependencies(DependencyMap.from(metadata.getDependenciesList()))
+                .build();
+    }
+
+    private static Retrieve.PackageQuery toQuery(PackageId packageId, Version version) {
+        return Retrieve.PackageQuery.newBuilder()
+                .setPackageId(packageId.toString())
+                .setVersion(version.toString())
+                .build();
+    }
+
+    private RetrievalServiceGrpc.RetrievalServiceStub getStubWithDeadline() {
+        RetrievalServiceGrpc.RetrievalServiceStub stub = getRetrievalServiceStub();
+        return Objects.isNull(timeout)
+                ? stub
+                : stub.withDeadlineAfter(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The stub (and the credentials behind it) is shared by every request so that concurrent requests don't each
+     * log in separately.
+     */
+    private synchronized RetrievalServiceGrpc.RetrievalServiceStub getRetrievalServiceStub() {
+        if (Objects.isNull(retrievalServiceStub)) {
+            AuthTokenCallCredentials credentials = authService.getAuthTokenCallCredentials(registryUrl);
+            Channel channel = grpcService.getChannel(registryUrl);
+            // TODO skip call credentials if --no-auth flag passed
+            retrievalServiceStub = RetrievalServiceGrpc.newStub(channel)
+                    .withCallCredentials(credentials);
+        }
+        return retrievalServiceStub;
+    }
+}
@@ -0,0 +1,362 @@
+package io.protop.core.registry;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import io.protop.core.RuntimeConfiguration;
+import io.protop.core.auth.AuthService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.logs.Logger;
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.Version;
+import io.protop.registry.domain.Package;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeEmitter;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieves packages from an ordered list of registries (i.e. mirrors of each other), possibly a different one for
+ * the packages of particular organizations.
+ *
+ * Each request goes to the first registry in the list. If it hasn't answered by the time most requests are done
+ * (the 95th percentile of the recent ones, unless configured otherwise), it is also sent to the next one, and
+ * whichever answers first is used. A registry that fails, or doesn't have the package, is skipped for the next one
+ * right away, and a registry that keeps failing or losing is tried last until it does better again.
+ */
+public class RegistryRouter {
+
+    private static final Logger logger = Logger.getLogger(RegistryRouter.class);
+
+    private static final Duration DEFAULT_HEDGE_DELAY = Duration.ofSeconds(1);
+    private static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(10);
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    // A registry that failed or lost this many times in a row is tried last.
+    private static final int STRIKES = 3;
+
+    private static final Splitter URL_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final List<Registry> registries;
+    private final Map<String, List<Registry>> registriesByOrganization;
+
+    @Nullable
+    private final Duration hedgeDelay;
+
+    private final LatencyTracker metadataLatencies = new LatencyTracker();
+    private final LatencyTracker tarballLatencies = new LatencyTracker();
+
+    private RegistryRouter(List<Registry> registries,
+                           Map<String, List<Registry>> registriesByOrganization,
+                           @Nullable Duration hedgeDelay) {
+        this.registries = registries;
+        this.registriesByOrganization = registriesByOrganization;
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * Route to the registries of the runtime configuration, i.e. "sync.registry" (or "registry") and
+     * "sync.registry.[org]", each of which may be a comma-separated list.
+     */
+    public static RegistryRouter from(AuthService authService, GrpcService grpcService, RuntimeConfiguration rc)
+            throws MalformedURLException {
+        Duration timeout = rc.getSyncTimeout();
+
+        // Registries are shared between organizations that list the same URL.
+        Map<URL, Registry> byUrl = new HashMap<>();
+        List<Registry> registries = parseRegistries(
+                rc.getSyncRepositoryUrl(), byUrl, authService, grpcService, timeout);
+        if (registries.isEmpty()) {
+            throw new MalformedURLException("No registry is configured.");
+        }
+        Map<String, List<Registry>> registriesByOrganization = new HashMap<>();
+        for (Map.Entry<String, String> urls : Optional.ofNullable(rc.getSyncRepositoryUrls())
+                .orElseGet(Collections::emptyMap)
+                .entrySet()) {
+            List<Registry> organizationRegistries = parseRegistries(
+                    urls.getValue(), byUrl, authService, grpcService, timeout);
+            if (!organizationRegistries.isEmpty()) {
+                registriesByOrganization.put(urls.getKey(), organizationRegistries);
+            }
+        }
+
+        return new RegistryRouter(registries, registriesByOrganization, rc.getSyncHedgeDelay());
+    }
+
+    /**
+     * @return the registry tried first for packages without a registry of their own.
+     */
+    public URL getPrimaryUrl() {
+        return registries.get(0).client.getRegistryUrl();
+    }
+
+    public List<URL> getUrls() {
+        return registries.stream()
+                .map(registry -> registry.client.getRegistryUrl())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Retrieve the metadata of a version from the first registry (of those for its organization) to have it.
+     * @return the metadata, or nothing if none of the registries have the version.
+     */
+    public Maybe<Package.PackageMetadata> retrieveMetadata(PackageId packageId, Version version) {
+        return hedge(packageId, registryClient -> registryClient.retrieveMetadata(packageId, version)
+                        .subscribeOn(Schedulers.io()),
+                metadataLatencies,
+                Optional::of);
+    }
+
+    public Maybe<Manifest> retrieveManifest(PackageId packageId, Version version) {
+        return retrieveMetadata(packageId, version)
+                .map(RegistryClient::toManifest);
+    }
+
+    /**
+     * Open the g-zipped tarball of a version from the first registry (of those for its organization) to start
+     * sending it. Once it has started, it is read from that registry to the end.
+     */
+    public InputStream retrieveTarball(PackageId packageId, Version version) throws IOException {
+        InputStream tarball = hedge(packageId, registryClient -> openTarball(registryClient, packageId, version),
+                tarballLatencies,
+                opened -> Optional.ofNullable(opened.getAndSet(null)))
+                .blockingGet();
+        if (Objects.isNull(tarball)) {
+            throw new IOException(String.format("%s %s was not found in any registry.", packageId, version));
+        }
+        return tarball;
+    }
+
+    /**
+     * The tarball once its first chunk has arrived, or nothing if it is empty. It belongs to the attempt until it is
+     * taken out of the reference, which only the request it succeeded for does; when the attempt ends, whatever
+     * wasn't taken (i.e. an empty tarball, or one that arrived too late or was abandoned halfway) is closed, which
+     * cancels its call.
+     */
+    private Maybe<AtomicReference<InputStream>> openTarball(RegistryClient registryClient,
+                                                           PackageId packageId,
+                                                           Version version) {
+        return Maybe.defer(() -> {
+            InputStream tarball = registryClient.retrieveTarball(packageId, version);
+            AtomicReference<InputStream> opened = new AtomicReference<>(tarball);
+            return Maybe.fromCallable(() -> {
+                PushbackInputStream pushback = new PushbackInputStream(tarball, 1);
+                int first = pushback.read();
+                if (first == -1) {
+                    return null;
+                }
+                pushback.unread(first);
+                // Unless it was closed already.
+                return opened.compareAndSet(tarball, pushback) ? opened : null;
+            })
+                    .doFinally(() -> Optional.ofNullable(opened.getAndSet(null))
+                            .ifPresent(RegistryRouter::closeQuietly));
+        })
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * @param claim takes the answer over from the attempt that got it; nothing if the attempt let go of it already.
+     */
+    private <T, R> Maybe<R> hedge(PackageId packageId,
+                                  Function<RegistryClient, Maybe<T>> request,
+                                  LatencyTracker latencies,
+                                  Function<T, Optional<R>> claim) {
+        return Maybe.create(emitter -> {
+            HedgedRequest<T, R> hedgedRequest = new HedgedRequest<>(
+                    emitter, getRegistriesFor(packageId), request, latencies, claim);
+            emitter.setCancellable(hedgedRequest::cancel);
+            hedgedRequest.start();
+        });
+    }
+
+    /**
+     * The registries of the package's organization (or the default ones), with those that keep failing last.
+     */
+    private List<Registry> getRegistriesFor(PackageId packageId) {
+        List<Registry> candidates = new ArrayList<>(
+                registriesByOrganization.getOrDefault(packageId.getOrganization(), registries));
+        // Stable, so the configured order is kept otherwise.
+        candidates.sort(Comparator.comparing(Registry::isStruckOut));
+        return candidates;
+    }
+
+    private Duration getHedgeDelay(LatencyTracker latencies) {
+        Duration delay = Optional.ofNullable(hedgeDelay)
+                .or(() -> latencies.getPercentile(HEDGE_PERCENTILE))
+                .orElse(DEFAULT_HEDGE_DELAY);
+        return delay.compareTo(MIN_HEDGE_DELAY) < 0 ? MIN_HEDGE_DELAY : delay;
+    }
+
+    private static List<Registry> parseRegistries(@Nullable String urls,
+                                                  Map<URL, Registry> byUrl,
+                                                  AuthService authService,
+                                                  GrpcService grpcService,
+                                                  @Nullable Duration timeout) throws MalformedURLException {
+        List<Registry> parsed = new ArrayList<>();
+        for (String url : URL_SPLITTER.split(Strings.nullToEmpty(urls))) {
+            URL registryUrl = new URL(url);
+            parsed.add(byUrl.computeIfAbsent(registryUrl, u ->
+                    new Registry(new RegistryClient(authService, grpcService, u, timeout))));
+        }
+        return parsed;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close a stream.", e);
+        }
+    }
+
+    private static class Registry {
+
+        private final RegistryClient client;
+        private final AtomicInteger strikes = new AtomicInteger();
+
+        private Registry(RegistryClient client) {
+            this.client = client;
+        }
+
+        private boolean isStruckOut() {
+            return strikes.get() >= STRIKES;
+        }
+    }
+
+    /**
+     * A request that is sent to one registry after another, until one of them has an answer. At most two of them
+     * are asked at once: the one that is slow, and the one it was hedged with. Everything is done holding the lock
+     * of the request, so its state is consistent no matter which thread an answer arrives on.
+     */
+    private class HedgedRequest<T, R> {
+
+        private final MaybeEmitter<R> emitter;
+        private final List<Registry> candidates;
+        private final Function<RegistryClient, Maybe<T>> request;
+        private final LatencyTracker latencies;
+        private final Function<T, Optional<R>> claim;
+
+        private final CompositeDisposable attempts = new CompositeDisposable();
+        private final Set<Registry> inFlight = new HashSet<>();
+        private int next;
+        private boolean hedged;
+        private boolean done;
+
+        @Nullable
+        private Throwable error;
+
+        private HedgedRequest(MaybeEmitter<R> emitter,
+                              List<Registry> candidates,
+                              Function<RegistryClient, Maybe<T>> request,
+                              LatencyTracker latencies,
+                              Function<T, Optional<R>> claim) {
+            this.emitter = emitter;
+            this.candidates = candidates;
+            this.request = request;
+            this.latencies = latencies;
+            this.claim = claim;
+        }
+
+        private synchronized void start() {
+            send();
+            if (next < candidates.size()) {
+                attempts.add(Schedulers.computation().scheduleDirect(
+                        this::hedge, getHedgeDelay(latencies).toNanos(), TimeUnit.NANOSECONDS));
+            }
+        }
+
+        private synchronized void hedge() {
+            if (!done && !hedged && next < candidates.size()) {
+                hedged = true;
+                logger.info("{} is slow to answer; asking {} as well.",
+                        candidates.get(next - 1).client.getRegistryUrl(),
+                        candidates.get(next).client.getRegistryUrl());
+                send();
+            }
+        }
+
+        private void send() {
+            Registry registry = candidates.get(next++);
+            inFlight.add(registry);
+            long started = System.nanoTime();
+            attempts.add(request.apply(registry.client).subscribe(
+                    value -> succeeded(registry, started, value),
+                    t -> failed(registry, t),
+                    () -> notFound(registry)));
+        }
+
+        private synchronized void succeeded(Registry registry, long started, T value) {
+            inFlight.remove(registry);
+            if (done) {
+                // Left to the attempt, which lets go of it once it ends.
+                return;
+            }
+            // Before the attempts are disposed of, since that is when they let go of what they haven't handed over.
+            Optional<R> claimed = claim.apply(value);
+            if (claimed.isEmpty()) {
+                sendOrFinish();
+                return;
+            }
+            done = true;
+            registry.strikes.set(0);
+            latencies.record(Duration.ofNanos(System.nanoTime() - started));
+            // Whoever it was hedged with was slower.
+            inFlight.forEach(loser -> loser.strikes.incrementAndGet());
+            attempts.dispose();
+            emitter.onSuccess(claimed.get());
+        }
+
+        private synchronized void failed(Registry registry, Throwable t) {
+            inFlight.remove(registry);
+            if (done) {
+                return;
+            }
+            registry.strikes.incrementAndGet();
+            logger.warn(String.format("Request to %s failed.", registry.client.getRegistryUrl()), t);
+            error = t;
+            sendOrFinish();
+        }
+
+        private synchronized void notFound(Registry registry) {
+            inFlight.remove(registry);
+            if (!done) {
+                sendOrFinish();
+            }
+        }
+
+        private void sendOrFinish() {
+            if (next < candidates.size()) {
+                send();
+            } else if (inFlight.isEmpty()) {
+                done = true;
+                attempts.dispose();
+                // Unless every registry could answer, it isn't known whether the package exists.
+                if (Objects.nonNull(error)) {
+                    emitter.onError(error);
+                } else {
+                    emitter.onComplete();
+                }
+            }
+        }
+
+        private synchronized void cancel() {
+            done = true;
+            attempts.dispose();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.protop.core.storage;
+
+import io.protop.core.logs.Logger;
+import io.protop.utils.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Content-addressed store of the files in the caches. Each distinct content is stored once, named by its SHA-256
+ * digest (sharded by the first two hex digits), and the files of cached versions and git worktrees are hard links
+ * to it. Blobs are read-only, and never change once written.
+ *
+ * Executable files are stored apart from other files with the same content, since links share their mode.
+ */
+public class BlobStore {
+
+    private static final Logger logger = Logger.getLogger(BlobStore.class);
+
+    private static final String EXECUTABLE_SUFFIX = "x";
+    private static final String TEMP = ".tmp";
+
+    // Contents up to this size are digested in memory, so that blobs which already exist are never written.
+    private static final long MAX_BUFFERED_SIZE = 1024 * 1024;
+
+    /**
+     * Store the content (if it isn't stored already) and link the target path to it. If the target can't be linked
+     * (e.g. on a file system without hard links), the blob is copied instead.
+     *
+     * @param size the size of the content, or a negative number if it isn't known.
+     * @return the SHA-256 digest of the content, as hex.
+     */
+    public String write(InputStream content, long size, boolean executable, Path target) throws IOException {
+        return getDigest(store(content, size, executable, target));
+    }
+
+    /**
+     * Store the content of a file that was written outside the store (i.e. cached before there was one), and replace
+     * the file with a link to it, so that its content can be checked without reading it from then on. If it can't
+     * be linked, the file is left as it is.
+     *
+     * @return the SHA-256 digest of the content, as hex.
+     */
+    public String adopt(Path file) throws IOException {
+        boolean executable = Files.isExecutable(file);
+        Path blob;
+        try (InputStream content = Files.newInputStream(file)) {
+            blob = store(content, Files.size(file), executable);
+        }
+        if (isLinked(file, getDigest(blob))) {
+            return getDigest(blob);
+        }
+
+        // Cached directories are read-only, so the parent is made writable just long enough to replace the file.
+        Path parent = file.getParent();
+        boolean writable = Files.isWritable(parent);
+        Path link = parent.resolve("." + file.getFileName() + "." + UUID.randomUUID());
+        try {
+            parent.toFile().setWritable(true);
+            Files.createLink(link, blob);
+            Files.move(link, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.info("Could not link {} to {}; leaving it as it is.", file, blob);
+            Files.deleteIfExists(link);
+        } finally {
+            if (!writable) {
+                parent.toFile().setReadOnly();
+            }
+        }
+        return getDigest(blob);
+    }
+
+    /**
+     * Whether the file is (still) a link to the blob with the digest, i.e. whether its content is intact, without
+     * reading it.
+     */
+    public boolean isLinked(Path file, String digest) {
+        byte[] bytes;
+        try {
+            bytes = DigestUtils.fromHex(digest);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (boolean executable : new boolean[]{false, true}) {
+            Path blob = pathOf(bytes, executable);
+            try {
+                if (Files.exists(blob) && Files.isSameFile(file, blob)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the blob with the content, which is written first if it doesn't exist yet.
+     */
+    public Path store(InputStream content, long size, boolean executable) throws IOException {
+        return store(content, size, executable, null);
+    }
+
+    /**
+     * Store the content and link the target (if any) to the blob. The content is kept until the target is linked, so
+     * that a blob which was pruned just as it was reused can be written again.
+     */
+    private Path store(InputStream content, long size, boolean executable, @Nullable Path target)
+            throws IOException {
+        if (size >= 0 && size <= MAX_BUFFERED_SIZE) {
+            byte[] bytes = IOUtils.toByteArray(content);
+            MessageDigest digest = DigestUtils.newDigest();
+            Path blob = pathOf(digest.digest(bytes), executable);
+            if (!reuse(blob, target, executable)) {
+                Path temp = createTempFile();
+                Files.write(temp, bytes);
+                publish(temp, blob, executable);
+                link(target, blob, executable);
+            }
+            return blob;
+        }
+
+        // Too big (or of unknown size) to buffer; digest it as it is written.
+        Path temp = createTempFile();
+        MessageDigest digest = DigestUtils.newDigest();
+        try (InputStream inputStream = new DigestInputStream(content, digest);
+             OutputStream outputStream = Files.newOutputStream(temp)) {
+            IOUtils.copy(inputStream, outputStream);
+        }
+        Path blob = pathOf(digest.digest(), executable);
+        if (reuse(blob, target, executable)) {
+            Files.delete(temp);
+        } else {
+            publish(temp, blob, executable);
+            link(target, blob, executable);
+        }
+        return blob;
+    }
+
+    /**
+     * Link the target (if any) to the blob, if it exists already. It is touched first, so that it isn't pruned as
+     * unused in the meantime (see {@link io.protop.core.cache.CacheCollector}).
+     *
+     * @return whether the blob was there to be reused; if not, it has to be written (again).
+     */
+    private boolean reuse(Path blob, @Nullable Path target, boolean executable) throws IOException {
+        StorageUtils.touch(blob);
+        if (Objects.isNull(target)) {
+            return Files.exists(blob);
+        }
+        try {
+            link(target, blob, executable);
+            return true;
+        } catch (NoSuchFileException e) {
+            if (Files.exists(blob)) {
+                // It was the target's directory that is missing.
+                throw e;
+            }
+            // Pruned before it was touched.
+            return false;
+        }
+    }
+
+    private static void link(@Nullable Path target, Path blob, boolean executable) throws IOException {
+        if (Objects.isNull(target)) {
+            return;
+        }
+        try {
+            Files.createLink(target, blob);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.warn("Could not link {} to {}; copying it instead.", target, blob);
+            Files.copy(blob, target);
+            target.toFile().setExecutable(executable);
+        }
+    }
+
+    private static String getDigest(Path blob) {
+        String name = blob.getFileName().toString();
+        return name.endsWith(EXECUTABLE_SUFFIX) ? name.substring(0, name.length() - EXECUTABLE_SUFFIX.length()) : name;
+    }
+
+    private Path getRoot() {
+        return Storage.pathOf(Storage.GlobalDirectory.BLOBS);
+    }
+
+    private Path pathOf(byte[] digest, boolean executable) {
+        String hex = DigestUtils.toHex(digest);
+        return getRoot()
+                .resolve(hex.substring(0, 2))
+                .resolve(executable ? hex + EXECUTABLE_SUFFIX : hex);
+    }
+
+    private Path createTempFile() throws IOException {
+        Path temp = getRoot().resolve(TEMP);
+        Files.createDirectories(temp);
+        return Files.createTempFile(temp, "blob", null);
+    }
+
+    /**
+     * Move a fully written blob into place, all at once. If another writer got there first, theirs is kept; it has
+     * the same content.
+     */
+    private void publish(Path temp, Path blob, boolean executable) throws IOException {
+        temp.toFile().setExecutable(executable);
+        temp.toFile().setReadOnly();
+        Files.createDirectories(blob.getParent());
+        try {
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!Files.exists(blob)) {
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -70,7 +70,16 @@ public class Storage {
         // External dependency cache.
         CACHE("_cache"),
 
-        GIT_CACHE("_git");
+        GIT_CACHE("_git"),
+
+        // Content-addressed files that the caches link to.
+        BLOBS("_blobs"),
+
+        // Lock files of entries in the caches, so that processes take turns writing them.
+        LOCKS("_locks"),
+
+        // Entries evicted from the caches, waiting to be deleted.
+        TRASH(".trash");
 
         private final String name;
     }
@@ -0,0 +1,112 @@
+package io.protop.core.storage;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import io.protop.core.logs.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An exclusive lock on an entry of the system-wide storage (i.e. a cached version), held both within this process
+ * and across processes through a lock file. Syncs that want the same entry wait for each other, so only one of
+ * them writes it.
+ *
+ * Within the process it is a semaphore rather than a lock, since it may be released on a different thread than the
+ * one it was acquired on. There is one semaphore per lock file, which is dropped once nobody holds or waits for it,
+ * so holding one lock never keeps a thread from taking another (i.e. the index's while caching a version). Lock
+ * files are left in place once they are created.
+ */
+public class StorageLock implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(StorageLock.class);
+
+    // Weakly held: whoever holds or waits for a semaphore keeps it from being replaced by a new one.
+    private static final LoadingCache<Path, Semaphore> LOCKS = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(() -> new Semaphore(1)));
+
+    private final Semaphore semaphore;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private StorageLock(Semaphore semaphore, FileChannel channel, FileLock fileLock) {
+        this.semaphore = semaphore;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Acquire the lock, waiting for whoever holds it (in this process or another one) to release it first.
+     */
+    public static StorageLock acquire(Path lockFile) throws IOException {
+        Semaphore semaphore = LOCKS.getUnchecked(lockFile.toAbsolutePath().normalize());
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + lockFile);
+        }
+        return lockFile(lockFile, semaphore, true).orElseThrow();
+    }
+
+    /**
+     * Acquire the lock only if nobody (in this process or another one) holds it right now.
+     * @return the lock, or nothing if it is held already.
+     */
+    public static Optional<StorageLock> tryAcquire(Path lockFile) throws IOException {
+        Semaphore semaphore = LOCKS.getUnchecked(lockFile.toAbsolutePath().normalize());
+        if (!semaphore.tryAcquire()) {
+            return Optional.empty();
+        }
+        return lockFile(lockFile, semaphore, false);
+    }
+
+    /**
+     * Lock the file, holding the semaphore already; the semaphore is released again unless the file is locked.
+     */
+    private static Optional<StorageLock> lockFile(Path lockFile, Semaphore semaphore, boolean wait)
+            throws IOException {
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(lockFile.getParent());
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = channel.tryLock();
+            if (Objects.isNull(fileLock)) {
+                if (!wait) {
+                    channel.close();
+                    semaphore.release();
+                    return Optional.empty();
+                }
+                logger.info("Waiting for another process to release {}.", lockFile);
+                fileLock = channel.lock();
+            }
+            return Optional.of(new StorageLock(semaphore, channel, fileLock));
+        } catch (IOException | RuntimeException e) {
+            if (Objects.nonNull(channel)) {
+                channel.close();
+            }
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            semaphore.release();
+        }
+    }
+}
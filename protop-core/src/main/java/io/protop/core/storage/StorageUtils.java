@@ -2,7 +2,14 @@ package io.protop.core.storage;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class StorageUtils {
 
@@ -21,4 +28,43 @@ public class StorageUtils {
             Files.createDirectory(path);
         }
     }
+
+    /**
+     * Records that a cache entry was just used, as its modification time (which its owner can set even if it is
+     * read-only); the least recently used entries are the first to be evicted.
+     */
+    public static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            // It is only evicted sooner than it should be.
+        }
+    }
+
+    /**
+     * Makes a directory and everything in it un-writable, mainly to protect against accidental modifications.
+     */
+    public static void setReadOnly(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.forEach(path -> path.toFile().setReadOnly());
+        }
+    }
+
+    /**
+     * Deletes a directory that may have been made read-only. Only directories are made writable again; files may be
+     * links to blobs, which must stay read-only.
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                path.toFile().setWritable(true);
+            }
+            Files.deleteIfExists(path);
+        }
+    }
 }
@@ -8,4 +8,7 @@ import lombok.Builder;
 public class DependencyResolutionConfiguration {
 
     final boolean includesLinkedDependencies;
+
+    // Sync exactly what the lockfile holds, without resolving the dependency graph.
+    final boolean frozen;
 }
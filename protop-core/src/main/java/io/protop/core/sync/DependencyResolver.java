@@ -6,6 +6,7 @@ import io.reactivex.Single;
 
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Set;
 
 public interface DependencyResolver {
 
@@ -20,4 +21,9 @@ public interface DependencyResolver {
      */
     Single<Map<PackageId, RevisionSource>> resolve(
             Path dependencyDir, Map<PackageId, RevisionSource> unresolvedDependencies);
+
+    /**
+     * @return dependencies that have been linked in the dependency directory by this resolver.
+     */
+    Set<PackageId> getLinkedDependencies();
 }
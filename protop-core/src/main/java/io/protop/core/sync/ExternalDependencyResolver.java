@@ -1,45 +1,49 @@
 package io.protop.core.sync;
 
-import io.grpc.Channel;
-import io.grpc.stub.StreamObserver;
 import io.protop.core.Context;
 import io.protop.core.auth.AuthService;
 import io.protop.core.cache.CacheService;
-import io.protop.core.cache.ExternalDependencyCache;
+import io.protop.core.cache.CacheIndex;
 import io.protop.core.cache.GitCache;
 import io.protop.core.error.PackageNotFound;
-import io.protop.core.grpc.AuthTokenCallCredentials;
+import io.protop.core.git.GitFetchMode;
+import io.protop.core.git.GitFetcher;
 import io.protop.core.grpc.GrpcService;
+import io.protop.core.lock.LockedDependency;
+import io.protop.core.lock.Lockfile;
 import io.protop.core.logs.Logger;
 import io.protop.core.manifest.DependencyMap;
 import io.protop.core.manifest.Manifest;
-import io.protop.core.manifest.ManifestNotFound;
 import io.protop.core.manifest.PackageId;
 import io.protop.core.manifest.revision.GitSource;
 import io.protop.core.manifest.revision.RevisionSource;
 import io.protop.core.manifest.revision.Version;
+import io.protop.core.registry.RegistryRouter;
 import io.protop.core.storage.Storage;
 import io.protop.core.storage.StorageService;
-import io.protop.registry.domain.Package;
-import io.protop.registry.services.RetrievalServiceGrpc;
-import io.protop.registry.services.Retrieve;
+import io.protop.core.sync.status.Retrieved;
+import io.protop.core.sync.status.Retrieving;
+import io.protop.core.sync.status.SyncStatus;
+import io.protop.utils.DigestUtils;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 import lombok.AllArgsConstructor;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -60,6 +64,39 @@ public class ExternalDependencyResolver implements DependencyResolver {
     private final CacheService cacheService;
     private final Context context;
     private final GrpcService grpcService;
+    private final Consumer<SyncStatus> statusConsumer;
+
+    // If present, dependencies are resolved exactly as recorded here instead of by walking the dependency graph.
+    @Nullable
+    private final Lockfile lockfile;
+
+    // The registry router and the limits on jobs, which may be shared with resolvers of other graphs.
+    private final ResolverResources resources;
+
+    // Everything resolved by this resolver, as it would be recorded in a lockfile.
+    private final ConcurrentMap<PackageId, LockedDependency> lockedDependencies = new ConcurrentHashMap<>();
+
+    // Requests for the same manifest share a single call, whether in flight or already completed.
+    private final ConcurrentMap<Map.Entry<PackageId, Version>, Maybe<Manifest>> manifestRequests =
+            new ConcurrentHashMap<>();
+
+    // Loaded lazily as projects are looked up, and kept up to date as repositories are cloned.
+    private final GitCache gitCache = new GitCache();
+
+    // Like the registry manifests, each git manifest is read once, whether in flight or already completed.
+    private final ConcurrentMap<Map.Entry<PackageId, GitSource>, Maybe<Manifest>> gitManifestRequests =
+            new ConcurrentHashMap<>();
+
+    public ExternalDependencyResolver(AuthService authService,
+                                      StorageService storageService,
+                                      CacheService cacheService,
+                                      Context context,
+                                      GrpcService grpcService,
+                                      Consumer<SyncStatus> statusConsumer,
+                                      @Nullable Lockfile lockfile) {
+        this(authService, storageService, cacheService, context, grpcService, statusConsumer, lockfile,
+                new ResolverResources(authService, grpcService, context));
+    }
 
     @Override
     public String getShortDescription() {
@@ -69,55 +106,102 @@ public class ExternalDependencyResolver implements DependencyResolver {
     @Override
     public Single<Map<PackageId, RevisionSource>> resolve(
             Path dependencyDir, Map<PackageId, RevisionSource> projectDependencies) {
+        return resolveInto(dependencyDir, projectDependencies);
+    }
+
+    /**
+     * Resolve the dependencies and retrieve all of them into the system-wide cache, like {@link #resolve}, but
+     * without linking them anywhere.
+     * @return unresolved dependencies.
+     */
+    public Single<Map<PackageId, RevisionSource>> fetch(Map<PackageId, RevisionSource> projectDependencies) {
+        return resolveInto(null, projectDependencies);
+    }
+
+    /**
+     * @param dependencyDir where to link the dependencies, or null to only retrieve them.
+     */
+    private Single<Map<PackageId, RevisionSource>> resolveInto(
+            @Nullable Path dependencyDir, Map<PackageId, RevisionSource> projectDependencies) {
 
         if (projectDependencies.isEmpty()) {
             return Single.just(projectDependencies);
         }
 
         return Single.create(emitter -> {
+            Scheduler gitScheduler = resources.getGitScheduler();
             try {
-                Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> preexistingGitCache = loadGitCache();
-                Map<PackageId, Map<Version, Path>> preexistingRegistryCache = loadVersionCache();
-                Map<PackageId, RevisionSource> aggregatedDependencies = aggregateDependencies(
-                        projectDependencies, preexistingRegistryCache);
+                CacheIndex cacheIndex = cacheService.getIndex();
+
+                Map<PackageId, RevisionSource> aggregatedDependencies = new HashMap<>();
+                Map<PackageId, Collection<PackageId>> dependencyGraph = new HashMap<>();
+                Map<PackageId, String> lockedCommits = new HashMap<>();
+                Map<PackageId, String> lockedIntegrities = new HashMap<>();
+                if (Objects.isNull(lockfile)) {
+                    aggregateDependencies(projectDependencies, cacheIndex, gitScheduler)
+                            .forEach((packageId, details) -> {
+                                aggregatedDependencies.put(packageId, details.getKey());
+                                dependencyGraph.put(packageId, Optional.ofNullable(details.getValue().getDependencies())
+                                        .map(dependencyMap -> dependencyMap.getValues().keySet())
+                                        .orElseGet(Collections::emptySet));
+                            });
+                } else {
+                    // The lockfile already holds the outcome of walking the graph.
+                    lockfile.closureOf(projectDependencies.keySet()).forEach((packageId, locked) -> {
+                        aggregatedDependencies.put(packageId, locked.getRevisionSource());
+                        dependencyGraph.put(packageId, locked.getDependencies());
+                        Optional.ofNullable(locked.getCommit()).ifPresent(commit ->
+                                lockedCommits.put(packageId, commit));
+                        Optional.ofNullable(locked.getIntegrity()).ifPresent(integrity ->
+                                lockedIntegrities.put(packageId, integrity));
+                    });
+                }
+                ConcurrentMap<PackageId, Map.Entry<String, Path>> gitProjects = new ConcurrentHashMap<>();
+                Completable.mergeArray(
+                        retrieveMissingVersions(aggregatedDependencies, cacheIndex, lockedIntegrities),
+                        retrieveGitProjects(aggregatedDependencies, lockedCommits, gitProjects, gitScheduler))
+                        .blockingAwait();
 
                 Set<PackageId> resolved = new HashSet<>();
                 aggregatedDependencies.forEach((coordinate, revisionSource) -> {
                     try {
-                        Map<GitSource, Map.Entry<Version, Path>> cachedGitRepos = preexistingGitCache.computeIfAbsent(coordinate, c -> new HashMap<>());
-                        Map<Version, Path> cachedVersions = preexistingRegistryCache.computeIfAbsent(coordinate, c -> new HashMap<>());
-
                         AtomicReference<Path> path = new AtomicReference<>();
+                        AtomicReference<String> integrity = new AtomicReference<>();
+                        AtomicReference<String> commit = new AtomicReference<>();
                         if (revisionSource instanceof Version) {
                             Version version = (Version) revisionSource;
 
-                            if (cachedVersions.containsKey(version)) {
-                                path.set(cachedVersions.get(version));
+                            Optional<CacheIndex.Entry> cached = cacheService.getDigested(coordinate, version);
+                            if (cached.isPresent()) {
+                                path.set(cached.get().getPath());
+                                integrity.set(cached.get().getIntegrity());
                             } else {
-                                logger.info("Not found; attempting to retrieve from registry.");
-                                retrieveFromRegistryAndCache(coordinate, version)
-                                        .map(Optional::ofNullable)
-                                        .blockingGet()
-                                        .ifPresent(path::set);
+                                logger.info("{} {} could not be retrieved from the registry.", coordinate, version);
                             }
                         } else if (revisionSource instanceof GitSource) {
-                            GitSource gitSource = (GitSource) revisionSource;
-
-                            if (cachedGitRepos.containsKey(gitSource)) {
-                                path.set(cachedGitRepos.get(gitSource).getValue());
-                            } else {
-                                // Everything should have already been cached for the git repo, because we can't retrieve a
-                                // manifest otherwise.
-                                // If that ever changes, we'll want to factor potentially retrieving from git into this called method.
-                                retrieveFromGitCache(coordinate, gitSource).ifPresent(path::set);
-                            }
+                            Optional.ofNullable(gitProjects.get(coordinate)).ifPresent(retrieved -> {
+                                commit.set(retrieved.getKey());
+                                path.set(retrieved.getValue());
+                                GitFetcher.readIntegrity(retrieved.getValue()).ifPresent(integrity::set);
+                            });
                         }
 
                         Path sourceDir = path.get();
-                        if (Objects.nonNull(sourceDir)) {
+                        if (Objects.nonNull(sourceDir) && Objects.isNull(dependencyDir)) {
+                            cacheService.markUsed(sourceDir);
+                            resolved.add(coordinate);
+                        } else if (Objects.nonNull(sourceDir)) {
                             try {
                                 SyncUtils.createSymbolicLink(dependencyDir, coordinate, sourceDir);
+                                cacheService.markUsed(sourceDir);
                                 resolved.add(coordinate);
+                                lockedDependencies.put(coordinate, LockedDependency.of(
+                                        revisionSource,
+                                        commit.get(),
+                                        Objects.nonNull(integrity.get())
+                                                ? integrity.get()
+                                                : DigestUtils.digestDirectory(sourceDir),
+                                        dependencyGraph.getOrDefault(coordinate, Collections.emptySet())));
                             } catch (IOException e) {
                                 logger.error("Could not create link to cached dependency.", e);
                                 throw new IncompleteSync();
@@ -137,98 +221,140 @@ public class ExternalDependencyResolver implements DependencyResolver {
         });
     }
 
-    private Map<PackageId, Map<Version, Path>> loadVersionCache() {
-        return ExternalDependencyCache.load().blockingGet()
-                .getProjects();
+    @Override
+    public Set<PackageId> getLinkedDependencies() {
+        return new HashSet<>(lockedDependencies.keySet());
     }
 
-    private Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> loadGitCache() {
-        return GitCache.load().blockingGet()
-                .getProjects();
+    /**
+     * @return the dependencies resolved so far, as they should be recorded in a lockfile.
+     */
+    public Map<PackageId, LockedDependency> getLockedDependencies() {
+        return new HashMap<>(lockedDependencies);
     }
 
-    private Map<PackageId, Map<Version, Manifest>> extractRegistryManifestsFromCache(
-            Map<PackageId, Map<Version, Path>> versionCache) {
-        Map<PackageId, Map<Version, Manifest>> output = new HashMap<>();
-
-        versionCache.forEach((coordinate, versionPathMap) -> {
-            Map<Version, Manifest> versionManifestMap = new HashMap<>();
-            versionPathMap.forEach((version, path) -> {
-                Manifest manifest = Manifest.from(path)
-                        .orElseThrow(ManifestNotFound::new);
-                versionManifestMap.put(version, manifest);
-            });
-            output.put(coordinate, versionManifestMap);
-        });
+    /**
+     * Retrieve (with bounded concurrency) every registry version that isn't cached yet, or whose cached content is
+     * no longer intact or doesn't match the lockfile. Each one is added to the cache index as it is cached.
+     */
+    private Completable retrieveMissingVersions(Map<PackageId, RevisionSource> dependencies,
+                                                CacheIndex cacheIndex,
+                                                Map<PackageId, String> lockedIntegrities) {
+        List<Map.Entry<PackageId, Version>> missing = dependencies.entrySet().stream()
+                .filter(entry -> entry.getValue() instanceof Version)
+                .map(entry -> Map.entry(entry.getKey(), (Version) entry.getValue()))
+                .filter(entry -> cacheService.getDigested(entry.getKey(), entry.getValue())
+                        .filter(cached -> isIntact(entry.getKey(), cached, lockedIntegrities.get(entry.getKey())))
+                        .isEmpty())
+                .collect(Collectors.toList());
+
+        if (missing.isEmpty()) {
+            return Completable.complete();
+        } else if (isOffline()) {
+            // They are left unresolved, and reported as such.
+            logger.info("{} dependencies are not cached, and sync is offline.", missing.size());
+            return Completable.complete();
+        }
 
-        return output;
+        logger.info("Retrieving {} missing dependencies from the registry.", missing.size());
+        return Flowable.fromIterable(missing)
+                .flatMapMaybe(entry -> resources.limit(retrieveFromRegistryAndCache(
+                                entry.getKey(), entry.getValue(), lockedIntegrities.get(entry.getKey())))
+                                .subscribeOn(Schedulers.io())
+                                .doOnSubscribe(d -> statusConsumer.accept(
+                                        new Retrieving(entry.getKey(), entry.getValue())))
+                                .doOnSuccess(path -> statusConsumer.accept(
+                                        new Retrieved(entry.getKey(), entry.getValue()))),
+                        false,
+                        resources.getJobs())
+                .ignoreElements();
     }
 
-    private Map<PackageId, Map<GitSource, Map.Entry<Version, Manifest>>> extractGitUrlManifestsFromCache(
-            Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> gitCache) {
-        Map<PackageId, Map<GitSource, Map.Entry<Version, Manifest>>> output = new HashMap<>();
-
-        gitCache.forEach(((coordinate, gitUrlEntryMap) -> {
-            Map<GitSource, Map.Entry<Version, Manifest>> gitManifestMap = new HashMap<>();
-            gitUrlEntryMap.forEach(((gitSource, versionPathEntry) -> {
-                Manifest manifest = Manifest.from(versionPathEntry.getValue())
-                        .orElseThrow(ManifestNotFound::new);
-                gitManifestMap.put(gitSource, Map.entry(versionPathEntry.getKey(), manifest));
-            }));
-            output.put(coordinate, gitManifestMap);
-        }));
-
-        return output;
+    /**
+     * Make sure that the files of every git dependency are in the git cache, on the git scheduler.
+     * Each one is added to the given map with the commit it was resolved to.
+     */
+    private Completable retrieveGitProjects(Map<PackageId, RevisionSource> dependencies,
+                                            Map<PackageId, String> lockedCommits,
+                                            ConcurrentMap<PackageId, Map.Entry<String, Path>> retrieved,
+                                            Scheduler gitScheduler) {
+        return Flowable.fromIterable(dependencies.entrySet())
+                .filter(entry -> entry.getValue() instanceof GitSource)
+                .flatMapCompletable(entry -> Completable.fromAction(() -> {
+                            PackageId packageId = entry.getKey();
+                            GitSource gitSource = (GitSource) entry.getValue();
+
+                            // Unless the graph was walked from a lockfile, the source has already been resolved.
+                            Optional<String> commit = lockedCommits.containsKey(packageId)
+                                    ? Optional.of(lockedCommits.get(packageId))
+                                    : resolveGitCommit(packageId, gitSource);
+                            commit.ifPresent(sha -> retrieveGitProject(packageId, gitSource, sha)
+                                    .ifPresent(path -> retrieved.put(packageId, Map.entry(sha, path))));
+                        }).subscribeOn(gitScheduler));
     }
 
-    private Map<PackageId, RevisionSource> aggregateDependencies(
+    private Map<PackageId, Map.Entry<RevisionSource, Manifest>> aggregateDependencies(
             Map<PackageId, RevisionSource> projectDependencies,
-            Map<PackageId, Map<Version, Path>> registryCache) {
+            CacheIndex cacheIndex,
+            Scheduler gitScheduler) {
 
-        Map<PackageId, Map<Version, Manifest>> registryManifestsForReference =
-                extractRegistryManifestsFromCache(registryCache);
         Map<PackageId, Map.Entry<RevisionSource, Manifest>> aggregated = new HashMap<>();
-        Queue<Map.Entry<PackageId, RevisionSource>> unchecked =
-                new LinkedList<>(projectDependencies.entrySet());
+        List<Map.Entry<PackageId, RevisionSource>> unchecked = new ArrayList<>(projectDependencies.entrySet());
+
+        // Offline, whatever isn't cached is collected rather than failing on the first one, so that everything
+        // missing can be reported at once.
+        Map<PackageId, RevisionSource> missing = new LinkedHashMap<>();
 
+        // The graph is walked one depth at a time. Every manifest needed for the current depth is retrieved
+        // concurrently, and then the results are applied in the same order as a plain breadth-first walk would
+        // apply them, so the highest version still wins exactly as it would if it were done sequentially.
         while (!unchecked.isEmpty()) {
-            Map.Entry<PackageId, RevisionSource> entry = unchecked.poll();
-            PackageId packageId = entry.getKey();
-            RevisionSource revisionSource = entry.getValue();
-
-            AtomicReference<Manifest> manifest = new AtomicReference<>();
-            if (revisionSource instanceof Version) {
-                Map<Version, Manifest> knownRegistryRevisions = registryManifestsForReference.computeIfAbsent(
-                        packageId, c -> new HashMap<>());
-                Version version = (Version) revisionSource;
-                if (knownRegistryRevisions.containsKey(version)) {
-                    manifest.set(knownRegistryRevisions.get(version));
-                } else {
-                    // try to retrieve the manifest from the network
-                    retrieveManifest(packageId, version).map(Optional::ofNullable).blockingGet().ifPresent(found -> {
-                        manifest.set(found);
-                        knownRegistryRevisions.put(version, found);
-                    });
+            prefetchManifests(unchecked, cacheIndex, gitScheduler);
+
+            List<Map.Entry<PackageId, RevisionSource>> next = new ArrayList<>();
+            for (Map.Entry<PackageId, RevisionSource> entry : unchecked) {
+                PackageId packageId = entry.getKey();
+                RevisionSource revisionSource = entry.getValue();
+
+                AtomicReference<Manifest> manifest = new AtomicReference<>();
+                if (revisionSource instanceof Version) {
+                    Version version = (Version) revisionSource;
+                    Optional<CacheIndex.Entry> cached = cacheIndex.get(packageId, version);
+                    if (cached.isPresent()) {
+                        manifest.set(cached.get().toManifest(packageId, version));
+                    } else {
+                        // this has already been requested from the network above
+                        manifest.set(retrieveManifestOnce(packageId, version).blockingGet());
+                    }
+                } else if (revisionSource instanceof GitSource) {
+                    GitSource gitSource = (GitSource) revisionSource;
+                    // this has already been read above
+                    Manifest gitRepoManifest = retrieveGitManifestOnce(packageId, gitSource, gitScheduler)
+                            .blockingGet();
+                    manifest.set(gitRepoManifest);
                 }
-            } else if (revisionSource instanceof GitSource) {
-                GitSource gitSource = (GitSource) revisionSource;
-                Manifest gitRepoManifest = retrieveGitProjectManifest(packageId, gitSource)
-                        .blockingGet();
-                manifest.set(gitRepoManifest);
-            }
 
-            Manifest resolvedManifest = manifest.get();
-            if (Objects.isNull(resolvedManifest)) {
-                throw new PackageNotFound(packageId, revisionSource);
-            } else {
-                if (!aggregated.containsKey(packageId) || (compare(aggregated.get(packageId).getValue(), resolvedManifest) < 0)) {
-                    aggregated.put(packageId, Map.entry(revisionSource, resolvedManifest));
-                    DependencyMap dependencyMap = resolvedManifest.getDependencies();
-                    if (Objects.nonNull(dependencyMap)) {
-                        unchecked.addAll(dependencyMap.getValues().entrySet());
+                Manifest resolvedManifest = manifest.get();
+                if (Objects.isNull(resolvedManifest) && isOffline()) {
+                    missing.putIfAbsent(packageId, revisionSource);
+                } else if (Objects.isNull(resolvedManifest)) {
+                    throw new PackageNotFound(packageId, revisionSource);
+                } else {
+                    if (!aggregated.containsKey(packageId)
+                            || (compare(aggregated.get(packageId).getValue(), resolvedManifest) < 0)) {
+                        aggregated.put(packageId, Map.entry(revisionSource, resolvedManifest));
+                        DependencyMap dependencyMap = resolvedManifest.getDependencies();
+                        if (Objects.nonNull(dependencyMap)) {
+                            next.addAll(dependencyMap.getValues().entrySet());
+                        }
                     }
                 }
             }
+            unchecked = next;
+        }
+
+        if (!missing.isEmpty()) {
+            throw new IncompleteSync(missing);
         }
 
         logger.info("Aggregated {} external dependencies.", aggregated.size());
@@ -236,13 +362,16 @@ public class ExternalDependencyResolver implements DependencyResolver {
         // After aggregating the dependencies the first time, we need to clear out unused dependencies
         // because there may be extras left behind from the dependency map of a version less than the
         // the version that was ultimately required.
-        Map<PackageId, RevisionSource> reduced = new HashMap<>();
+        Map<PackageId, Map.Entry<RevisionSource, Manifest>> reduced = new HashMap<>();
         Queue<PackageId> reducible = new LinkedList<>(projectDependencies.keySet());
 
         while (!reducible.isEmpty()) {
             PackageId packageId = reducible.poll();
+            if (reduced.containsKey(packageId)) {
+                continue;
+            }
             Map.Entry<RevisionSource, Manifest> details = aggregated.get(packageId);
-            reduced.put(packageId, details.getKey());
+            reduced.put(packageId, details);
             DependencyMap dependencyMap = details.getValue().getDependencies();
             if (!Objects.isNull(dependencyMap)) {
                 reducible.addAll(dependencyMap.getValues().keySet());
@@ -254,173 +383,162 @@ public class ExternalDependencyResolver implements DependencyResolver {
         return reduced;
     }
 
-    private int compare(Manifest a, Manifest b) {
-        return a.getVersion().compareTo(b.getVersion());
+    /**
+     * Retrieve (with bounded concurrency) the registry manifests that are not already cached for the given
+     * dependencies, and at the same time the manifests of the git dependencies, so that they are all ready by the
+     * time each dependency is checked.
+     */
+    private void prefetchManifests(List<Map.Entry<PackageId, RevisionSource>> dependencies,
+                                   CacheIndex cacheIndex,
+                                   Scheduler gitScheduler) {
+        Completable registryManifests = Flowable.fromIterable(dependencies)
+                .filter(entry -> entry.getValue() instanceof Version)
+                .filter(entry -> cacheIndex.get(entry.getKey(), (Version) entry.getValue()).isEmpty())
+                .flatMapMaybe(entry -> retrieveManifestOnce(entry.getKey(), (Version) entry.getValue()),
+                        false,
+                        resources.getJobs())
+                .ignoreElements();
+
+        // The git scheduler already bounds how many of these run at once.
+        Completable gitManifests = Flowable.fromIterable(dependencies)
+                .filter(entry -> entry.getValue() instanceof GitSource)
+                .flatMapMaybe(entry -> retrieveGitManifestOnce(
+                        entry.getKey(), (GitSource) entry.getValue(), gitScheduler))
+                .ignoreElements();
+
+        Completable.mergeArray(registryManifests, gitManifests)
+                .blockingAwait();
     }
 
-    private URL getRegistryUrl() throws MalformedURLException {
-        return new URL(Optional.ofNullable(context.getRc().getRepositoryUrl()).orElse(""));
+    private Maybe<Manifest> retrieveManifestOnce(PackageId packageId, Version version) {
+        if (isOffline()) {
+            return Maybe.empty();
+        }
+        return manifestRequests.computeIfAbsent(Map.entry(packageId, version), key ->
+                resources.limit(retrieveManifest(packageId, version))
+                        .subscribeOn(Schedulers.io())
+                        .cache());
     }
 
-    private RetrievalServiceGrpc.RetrievalServiceStub createRetrievalServiceStub() throws MalformedURLException {
-        URL retrievalURL = getRegistryUrl();
-        AuthTokenCallCredentials credentials = authService.getAuthTokenCallCredentials(retrievalURL);
-        Channel channel = grpcService.getChannel(retrievalURL);
-        // TODO skip call credentials if --no-auth flag passed
-        return RetrievalServiceGrpc.newStub(channel)
-                .withCallCredentials(credentials);
+    private Maybe<Manifest> retrieveGitManifestOnce(PackageId packageId, GitSource gitSource, Scheduler gitScheduler) {
+        return gitManifestRequests.computeIfAbsent(Map.entry(packageId, gitSource), key ->
+                retrieveGitProjectManifest(packageId, gitSource)
+                        .subscribeOn(gitScheduler)
+                        .cache());
     }
 
-    private Maybe<Manifest> retrieveManifest(PackageId packageId, Version version) {
-        return Maybe.create(emitter -> {
-            logger.info("Retrieving package manifest: {} {}", packageId, version);
-            RetrievalServiceGrpc.RetrievalServiceStub retrievalServiceStub = createRetrievalServiceStub();
-
-            retrievalServiceStub.retrieveMetadata(Retrieve.PackageQuery.newBuilder()
-                    .setPackageId(packageId.toString())
-                    .setVersion(version.toString())
-                    .build(), new StreamObserver<>() {
-                @Override
-                public void onNext(Package.PackageMetadata value) {
-                    logger.info("Received package metadata...");
-                    emitter.onSuccess(Manifest.builder()
-                            .organization(value.getOrganization())
-                            .name(value.getProject())
-                            .version(Version.of(value.getVersion()))
-                            .dependencies(DependencyMap.from(value.getDependenciesList()))
-                            .build());
-                }
-
-                @Override
-                public void onError(Throwable t) {
-                    emitter.onError(t);
-                }
-
-                @Override
-                public void onCompleted() {
-                    logger.info("Did not find this package's manifest in the registry.");
-                    emitter.onComplete();
-                }
-            });
-        });
+    private boolean isOffline() {
+        return Optional.ofNullable(context.getRc().getOffline()).orElse(false);
     }
 
-    private Maybe<Path> retrieveFromRegistryAndCache(PackageId packageId, Version version) throws IOException, URISyntaxException {
-        return Maybe.create(emitter -> {
-            logger.info("Retrieving package: {} {}", packageId, version);
-            RetrievalServiceGrpc.RetrievalServiceStub retrievalServiceStub = createRetrievalServiceStub();
+    private int compare(Manifest a, Manifest b) {
+        return a.getVersion().compareTo(b.getVersion());
+    }
 
-            AtomicReference<ByteArrayOutputStream> chunks = new AtomicReference<>(new ByteArrayOutputStream());
+    private RegistryRouter getRegistryRouter() throws MalformedURLException {
+        if (isOffline()) {
+            throw new IllegalStateException("Sync is offline; the registry must not be used.");
+        }
+        return resources.getRegistryRouter();
+    }
 
-            retrievalServiceStub.retrieve(Retrieve.PackageQuery.newBuilder()
-                    .setPackageId(packageId.toString())
-                    .setVersion(version.toString())
-                    .build(), new StreamObserver<>() {
-                @Override
-                public void onNext(io.protop.registry.data.Package.DataChunk value) {
-                    try {
-                        chunks.get().write(value.getData().toByteArray());
-                    } catch (IOException e) {
-                        // TODO wrap this exception?
-                        emitter.onError(e);
-                    }
-                }
+    private Maybe<Manifest> retrieveManifest(PackageId packageId, Version version) {
+        return Maybe.defer(() -> getRegistryRouter().retrieveManifest(packageId, version));
+    }
 
-                @Override
-                public void onError(Throwable t) {
-                    // TODO wrap this exception?
-                    emitter.onError(t);
-                }
+    private boolean isIntact(PackageId packageId, CacheIndex.Entry cached, @Nullable String lockedIntegrity) {
+        if (Objects.nonNull(lockedIntegrity) && !Objects.equals(lockedIntegrity, cached.getIntegrity())) {
+            logger.warn("Cached {} does not match the lockfile; retrieving it again.", packageId);
+            return false;
+        }
+        if (!cacheService.isIntact(cached)) {
+            logger.warn("Cached {} has been modified; retrieving it again.", packageId);
+            return false;
+        }
+        return true;
+    }
 
-                @Override
-                public void onCompleted() {
-                    cacheService.cacheFromRegistry(
-                            packageId, version, new ByteArrayInputStream(chunks.get().toByteArray()))
-                            .subscribe(emitter::onSuccess, emitter::onError)
-                            .dispose();
-                }
-            });
-        });
+    /**
+     * Retrieve the version into the cache, unless another sync (in any process) or another thread is caching it
+     * right now; then this waits for it and uses what it cached instead.
+     */
+    private Maybe<Path> retrieveFromRegistryAndCache(PackageId packageId,
+                                                     Version version,
+                                                     @Nullable String expectedIntegrity) {
+        return cacheService.getOrRetrieve(packageId, version, expectedIntegrity, () ->
+                getRegistryRouter().retrieveTarball(packageId, version));
     }
 
     private Maybe<Manifest> retrieveGitProjectManifest(PackageId packageId, GitSource gitSource) {
-        return Maybe.fromCallable(() -> {
-            cacheService.unlock(Storage.GlobalDirectory.GIT_CACHE);
-
-            Path orgPath = Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE)
-                    .resolve(packageId.getOrganization());
-            storageService.createDirectoryIfNotExists(orgPath);
-
-            Path projectPath = orgPath.resolve(packageId.getProject());
-            storageService.createDirectoryIfNotExists(projectPath);
-
-            Path gitUrlPath = projectPath.resolve(gitSource.getUrlEncoded());
-            File gitUrlDirectory = gitUrlPath.toFile();
-
-            boolean refreshGitSources = Optional.ofNullable(context.getRc().getRefreshGitSources())
-                    .orElse(false);
-
-            if (!gitUrlDirectory.exists() || refreshGitSources) {
-                if (gitUrlDirectory.exists()) {
-                    // TODO it might be nice to pull in changes if the directory exists,
-                    //  rather than always wipe it out and then clone
-                    final List<Path> pathsToDelete = Files.walk(gitUrlPath)
-                            .sorted(Comparator.reverseOrder())
-                            .collect(Collectors.toList());
-                    for (Path path : pathsToDelete) {
-                        Files.deleteIfExists(path);
-                    }
-                }
-
-                try {
-                    logger.info("Retrieving {} {}.", packageId, gitSource);
-                    Git.cloneRepository()
-                            .setURI(gitSource.getRawUrl())
-                            .setDirectory(gitUrlDirectory)
-                            .setCloneAllBranches(true)
-                            .call();
-                } catch (GitAPIException e) {
-                    // TODO rethrow?
-                    String message = String.format("Failed to retrieve %s from %s.", packageId, gitSource);
-                    logger.error(message, e);
-                }
-            }
-
-
-            Optional<String> branchName = Optional.ofNullable(gitSource.getBranchName());
-            try {
-                if (branchName.isPresent()) {
-                    Git git = Git.open(gitUrlDirectory);
-                    git.checkout()
-                            .setCreateBranch(false)
-                            .setName(branchName.get())
-                            .call();
-                }
-            } catch (GitAPIException e) {
-                String message = String.format("Failed to find branch \"%s\" in Git repo for %s: %s.",
-                        branchName.get(), packageId, gitSource);
-                logger.error(message, e);
-            }
+        return Maybe.fromCallable(() -> resolveGitCommit(packageId, gitSource)
+                .flatMap(commit -> readGitProjectManifest(packageId, gitSource, commit))
+                .orElse(null));
+    }
 
-            cacheService.lock(Storage.GlobalDirectory.GIT_CACHE);
+    /**
+     * Resolve the git source to a commit, only once per sync.
+     */
+    private Optional<String> resolveGitCommit(PackageId packageId, GitSource gitSource) {
+        Optional<String> cached = gitCache.get(packageId, gitSource);
+        if (cached.isPresent()) {
+            return cached;
+        }
 
-            return Manifest.from(gitUrlPath).orElse(null);
-        });
+        boolean refreshGitSources = Optional.ofNullable(context.getRc().getRefreshGitSources())
+                .orElse(false);
+        try {
+            String commit = createGitFetcher(packageId, gitSource).resolve(
+                    gitSource, refreshGitSources, context.getRc().getGitRefreshTtl());
+            return Optional.of(gitCache.put(packageId, gitSource, commit));
+        } catch (IOException | GitAPIException | JGitInternalException e) {
+            // TODO rethrow?
+            String message = String.format("Failed to retrieve %s from %s.", packageId, gitSource);
+            logger.error(message, e);
+            return Optional.empty();
+        }
     }
 
-    private Optional<Path> retrieveFromGitCache(PackageId packageId, GitSource gitSource) {
-        GitCache gitCache = GitCache.load().blockingGet();
-
-        Map<PackageId, Map<GitSource, Map.Entry<Version, Path>>> projects = gitCache.getProjects();
+    /**
+     * Read the manifest from the git cache without writing out any files.
+     */
+    private Optional<Manifest> readGitProjectManifest(PackageId packageId, GitSource gitSource, String commit) {
+        try {
+            return createGitFetcher(packageId, gitSource).readManifest(gitSource, commit);
+        } catch (IOException | GitAPIException | JGitInternalException e) {
+            String message = String.format("Failed to read the manifest of %s from %s at %s.",
+                    packageId, gitSource, commit);
+            logger.error(message, e);
+            return Optional.empty();
+        }
+    }
 
-        if (projects.containsKey(packageId)) {
-            Map<GitSource, Map.Entry<Version, Path>> revisions = projects.get(packageId);
-            if (revisions.containsKey(gitSource)) {
-                return Optional.of(revisions.get(gitSource).getValue());
-            }
+    /**
+     * Make sure that the files of the commit are in the git cache.
+     */
+    private Optional<Path> retrieveGitProject(PackageId packageId, GitSource gitSource, String commit) {
+        try {
+            logger.info("Retrieving {} {} at {}.", packageId, gitSource, commit);
+            return Optional.of(createGitFetcher(packageId, gitSource).materialize(gitSource, commit));
+        } catch (IOException | GitAPIException | JGitInternalException e) {
+            String message = String.format("Failed to retrieve %s from %s at %s.", packageId, gitSource, commit);
+            logger.error(message, e);
+            return Optional.empty();
         }
+    }
+
+    private GitFetcher createGitFetcher(PackageId packageId, GitSource gitSource) {
+        return new GitFetcher(
+                Storage.pathOf(Storage.GlobalDirectory.GIT_CACHE),
+                getGitFetchMode(packageId),
+                new GitProgressReporter(packageId, gitSource, statusConsumer),
+                Optional.ofNullable(context.getRc().getGitArchiveUrls()).orElseGet(Collections::emptyMap),
+                isOffline());
+    }
 
-        logger.info("Project {} from {} not found in cache.", packageId, gitSource);
-        return Optional.empty();
+    private GitFetchMode getGitFetchMode(PackageId packageId) {
+        return Optional.ofNullable(context.getRc().getGitFetchModes())
+                .map(modes -> modes.get(packageId))
+                .or(() -> Optional.ofNullable(context.getRc().getGitFetchMode()))
+                .orElse(GitFetchMode.SPARSE);
     }
 }
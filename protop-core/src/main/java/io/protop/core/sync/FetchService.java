@@ -0,0 +1,92 @@
+package io.protop.core.sync;
+
+import io.protop.core.Context;
+import io.protop.core.auth.AuthService;
+import io.protop.core.cache.CacheService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.lock.Lockfile;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionSource;
+import io.protop.core.manifest.revision.RevisionUtils;
+import io.protop.core.storage.StorageService;
+import io.protop.core.sync.status.Fetching;
+import io.protop.core.sync.status.SyncStatus;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.schedulers.Schedulers;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Retrieves dependencies, with everything they depend on, into the system-wide cache without syncing a project,
+ * i.e. nothing is linked and no project directory is touched. Syncs of the same dependencies afterwards only hit the
+ * cache.
+ *
+ * Several fetches can run at once; they share one registry router, and the limits on how many registry requests and
+ * git operations are made at a time.
+ */
+public class FetchService {
+
+    private final AuthService authService;
+    private final StorageService storageService;
+    private final Context context;
+    private final CacheService cacheService;
+    private final GrpcService grpcService;
+    private final ResolverResources resources;
+
+    public FetchService(AuthService authService,
+                        StorageService storageService,
+                        Context context,
+                        GrpcService grpcService) {
+        this.authService = authService;
+        this.storageService = storageService;
+        this.context = context;
+        this.cacheService = new CacheService(storageService);
+        this.grpcService = grpcService;
+        this.resources = new ResolverResources(authService, grpcService, context);
+    }
+
+    /**
+     * Resolve the dependency graph of the given dependencies, the same way a sync would, and fetch all of it.
+     * @param description what is being fetched (for logging purposes).
+     */
+    public Observable<SyncStatus> fetch(String description, Map<PackageId, RevisionSource> dependencies) {
+        return fetch(description, dependencies, null);
+    }
+
+    /**
+     * Fetch exactly the dependencies recorded in the lockfile.
+     * @param description what is being fetched (for logging purposes).
+     */
+    public Observable<SyncStatus> fetch(String description, Lockfile lockfile) {
+        Map<PackageId, RevisionSource> dependencies = new HashMap<>();
+        lockfile.getRequires().forEach((packageId, revision) ->
+                dependencies.put(packageId, RevisionUtils.fromString(revision)));
+        return fetch(description, dependencies, lockfile);
+    }
+
+    private Observable<SyncStatus> fetch(String description,
+                                         Map<PackageId, RevisionSource> dependencies,
+                                         @Nullable Lockfile lockfile) {
+        return Observable.create(unserializedEmitter -> {
+            // Statuses may be emitted from several threads while dependencies are retrieved.
+            ObservableEmitter<SyncStatus> emitter = unserializedEmitter.serialize();
+            emitter.onNext(new Fetching(description));
+
+            ExternalDependencyResolver resolver = new ExternalDependencyResolver(authService, storageService,
+                    cacheService, context, grpcService, emitter::onNext, lockfile, resources);
+            Map<PackageId, RevisionSource> unresolved = resolver.fetch(dependencies)
+                    .blockingGet();
+
+            if (!unresolved.isEmpty()) {
+                emitter.onError(new IncompleteSync(unresolved));
+            } else {
+                emitter.onComplete();
+            }
+        })
+                // Resolving blocks, so each fetch has a thread of its own and several can run at once.
+                .subscribeOn(Schedulers.io());
+    }
+}
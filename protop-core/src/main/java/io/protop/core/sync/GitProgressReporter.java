@@ -0,0 +1,51 @@
+package io.protop.core.sync;
+
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.GitSource;
+import io.protop.core.sync.status.GitProgress;
+import io.protop.core.sync.status.SyncStatus;
+import org.eclipse.jgit.lib.BatchingProgressMonitor;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Reports the progress of fetching a git dependency as sync statuses. Updates are batched by JGit, so a fast
+ * fetch reports nothing but the end of each task.
+ */
+class GitProgressReporter extends BatchingProgressMonitor {
+
+    private final PackageId packageId;
+    private final GitSource gitSource;
+    private final Consumer<SyncStatus> statusConsumer;
+
+    GitProgressReporter(PackageId packageId, GitSource gitSource, Consumer<SyncStatus> statusConsumer) {
+        this.packageId = packageId;
+        this.gitSource = gitSource;
+        this.statusConsumer = statusConsumer;
+    }
+
+    @Override
+    protected void onUpdate(String taskName, int workCurr, Duration duration) {
+        report(taskName, workCurr, 0);
+    }
+
+    @Override
+    protected void onEndTask(String taskName, int workCurr, Duration duration) {
+        report(taskName, workCurr, 0);
+    }
+
+    @Override
+    protected void onUpdate(String taskName, int workCurr, int workTotal, int percentDone, Duration duration) {
+        report(taskName, workCurr, workTotal);
+    }
+
+    @Override
+    protected void onEndTask(String taskName, int workCurr, int workTotal, int percentDone, Duration duration) {
+        report(taskName, workCurr, workTotal);
+    }
+
+    private void report(String taskName, int completed, int total) {
+        statusConsumer.accept(new GitProgress(packageId, gitSource, taskName, completed, total));
+    }
+}
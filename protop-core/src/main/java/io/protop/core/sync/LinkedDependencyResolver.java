@@ -16,6 +16,8 @@ public class LinkedDependencyResolver implements DependencyResolver {
 
     private static final Logger logger = Logger.getLogger(LinkedDependencyResolver.class);
 
+    private final Set<PackageId> linkedDependencies = new HashSet<>();
+
     @Override
     public String getShortDescription() {
         return "linked projects";
@@ -42,7 +44,13 @@ public class LinkedDependencyResolver implements DependencyResolver {
             });
 
             resolved.forEach(unresolvedDependencies::remove);
+            linkedDependencies.addAll(resolved);
             return unresolvedDependencies;
         });
     }
+
+    @Override
+    public Set<PackageId> getLinkedDependencies() {
+        return new HashSet<>(linkedDependencies);
+    }
 }
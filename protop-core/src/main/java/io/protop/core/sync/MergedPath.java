@@ -0,0 +1,152 @@
+package io.protop.core.sync;
+
+import com.google.common.collect.ImmutableList;
+import io.protop.core.logs.Logger;
+import io.protop.core.storage.Storage;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The merged path of a project (.protop/path), a tree of directories and links to the proto files of every
+ * dependency.
+ *
+ * The path itself is a link to one of two generations of the tree. An update only changes the entries of the
+ * inactive generation that differ from what is wanted, and then repoints the link in one step, so anything
+ * reading the path (e.g. protoc) always sees one complete tree or the other. Nothing is written at all if the
+ * active generation is already up to date.
+ */
+public class MergedPath {
+
+    private static final Logger logger = Logger.getLogger(MergedPath.class);
+
+    private static final List<String> GENERATIONS = ImmutableList.of(".path-a", ".path-b");
+
+    private final Path protopDir;
+
+    public MergedPath(Path protopDir) {
+        this.protopDir = protopDir;
+    }
+
+    /**
+     * @param links paths of the files in the tree (relative to the tree), mapped to the files they link to.
+     */
+    public void update(Map<Path, Path> links) throws IOException {
+        Path pathLink = protopDir.resolve(Storage.ProjectDirectory.PATH.getName());
+        Optional<String> active = getActiveGeneration(pathLink);
+
+        if (active.isPresent() && Objects.equals(readLinks(protopDir.resolve(active.get())), links)) {
+            logger.info("Merged path is already up to date.");
+            return;
+        }
+
+        String next = active
+                .map(generation -> GENERATIONS.get((GENERATIONS.indexOf(generation) + 1) % GENERATIONS.size()))
+                .orElse(GENERATIONS.get(0));
+        Path nextDir = protopDir.resolve(next);
+        Files.createDirectories(nextDir);
+        applyLinks(nextDir, links);
+
+        if (active.isEmpty() && Files.exists(pathLink, LinkOption.NOFOLLOW_LINKS)) {
+            // Left by an older version of protop (or by hand); a plain directory can't be replaced in one step.
+            if (Files.isSymbolicLink(pathLink) || !Files.isDirectory(pathLink)) {
+                Files.delete(pathLink);
+            } else {
+                FileUtils.deleteDirectory(pathLink.toFile());
+            }
+        }
+
+        // Relative, so that the project directory can be moved.
+        SyncUtils.replaceSymbolicLink(pathLink, Path.of(next));
+        logger.info("Merged path now points to {}.", next);
+    }
+
+    private Optional<String> getActiveGeneration(Path pathLink) throws IOException {
+        if (!Files.isSymbolicLink(pathLink)) {
+            return Optional.empty();
+        }
+        String target = Files.readSymbolicLink(pathLink).toString();
+        return GENERATIONS.contains(target)
+                ? Optional.of(target)
+                : Optional.empty();
+    }
+
+    /**
+     * @return every link in the tree mapped to its target; anything else that isn't a directory maps to null.
+     */
+    private Map<Path, Path> readLinks(Path root) throws IOException {
+        Map<Path, Path> links = new HashMap<>();
+        if (!Files.isDirectory(root)) {
+            return links;
+        }
+
+        List<Path> paths;
+        try (Stream<Path> walked = Files.walk(root)) {
+            paths = walked.collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            if (Files.isSymbolicLink(path)) {
+                links.put(root.relativize(path), Files.readSymbolicLink(path));
+            } else if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                links.put(root.relativize(path), null);
+            }
+        }
+        return links;
+    }
+
+    private void applyLinks(Path root, Map<Path, Path> links) throws IOException {
+        Map<Path, Path> existing = readLinks(root);
+
+        int removed = 0;
+        for (Map.Entry<Path, Path> entry : existing.entrySet()) {
+            if (!Objects.equals(links.get(entry.getKey()), entry.getValue())) {
+                Files.delete(root.resolve(entry.getKey()));
+                removed++;
+            }
+        }
+
+        int added = 0;
+        for (Map.Entry<Path, Path> entry : links.entrySet()) {
+            if (!Objects.equals(existing.get(entry.getKey()), entry.getValue())) {
+                Path link = root.resolve(entry.getKey());
+                Files.createDirectories(link.getParent());
+                Files.createSymbolicLink(link, entry.getValue());
+                added++;
+            }
+        }
+
+        if (removed > 0) {
+            removeEmptyDirectories(root);
+        }
+        logger.info("Removed {} and added {} links in {}.", removed, added, root);
+    }
+
+    private void removeEmptyDirectories(Path root) throws IOException {
+        List<Path> directories;
+        try (Stream<Path> walked = Files.walk(root)) {
+            directories = walked
+                    .filter(path -> Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                    .filter(path -> !Objects.equals(path, root))
+                    // Deepest first, so that parents are emptied before they're checked.
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+
+        for (Path directory : directories) {
+            boolean empty;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                empty = !children.iterator().hasNext();
+            }
+            if (empty) {
+                Files.delete(directory);
+            }
+        }
+    }
+}
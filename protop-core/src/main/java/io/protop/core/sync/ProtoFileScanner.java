@@ -0,0 +1,126 @@
+package io.protop.core.sync;
+
+import com.google.common.collect.ImmutableList;
+import io.protop.core.logs.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the proto files of every dependency (.protop/deps/org/project) into one tree, as it will appear in the
+ * merged path.
+ *
+ * Each project is walked on its own in the common fork-join pool, and every file is added to one concurrent map
+ * keyed by its path relative to the project, so two projects providing the same file are caught no matter which
+ * one is walked first.
+ */
+public class ProtoFileScanner {
+
+    private static final Logger logger = Logger.getLogger(ProtoFileScanner.class);
+
+    private static final List<String> INVALID_DIRECTORY_NAMES = ImmutableList.of("node_modules");
+    private static final String PROTO_EXTENSION = ".proto";
+
+    private final Path dependenciesDir;
+
+    public ProtoFileScanner(Path dependenciesDir) {
+        this.dependenciesDir = dependenciesDir;
+    }
+
+    /**
+     * @return paths of the proto files relative to their project, mapped to the files themselves.
+     * @throws FileAlreadyExistsException if more than one project has a proto file at the same relative path.
+     */
+    public Map<Path, Path> scan() throws IOException {
+        ConcurrentMap<Path, Path> files = new ConcurrentHashMap<>();
+        try {
+            listProjects().parallelStream().forEach(project -> {
+                try {
+                    Files.walkFileTree(
+                            project,
+                            EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                            Integer.MAX_VALUE,
+                            new ProjectVisitor(project, files));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return files;
+    }
+
+    private List<Path> listProjects() throws IOException {
+        List<Path> projects = new ArrayList<>();
+        if (!Files.isDirectory(dependenciesDir)) {
+            return projects;
+        }
+        try (DirectoryStream<Path> orgs = Files.newDirectoryStream(dependenciesDir, Files::isDirectory)) {
+            for (Path org : orgs) {
+                try (DirectoryStream<Path> orgProjects = Files.newDirectoryStream(org, Files::isDirectory)) {
+                    orgProjects.forEach(projects::add);
+                }
+            }
+        }
+        return projects;
+    }
+
+    private static boolean isValidName(Path path) {
+        Path name = path.getFileName();
+        return name != null && !name.toString().startsWith(".");
+    }
+
+    private static class ProjectVisitor extends SimpleFileVisitor<Path> {
+
+        private final Path project;
+        private final ConcurrentMap<Path, Path> files;
+
+        private ProjectVisitor(Path project, ConcurrentMap<Path, Path> files) {
+            this.project = project;
+            this.files = files;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (dir.equals(project)) {
+                return FileVisitResult.CONTINUE;
+            }
+            return isValidName(dir) && !INVALID_DIRECTORY_NAMES.contains(dir.getFileName().toString())
+                    ? FileVisitResult.CONTINUE
+                    : FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (attrs.isRegularFile()
+                    && isValidName(file)
+                    && file.getFileName().toString().endsWith(PROTO_EXTENSION)) {
+                Path relativePath = project.relativize(file);
+                Path existing = files.putIfAbsent(relativePath, file);
+                if (existing != null) {
+                    String message = String.format(
+                            "Proto file with name %s already exists under parent directory \"%s\"",
+                            relativePath.getFileName(),
+                            Optional.ofNullable(relativePath.getParent())
+                                    .map(Path::toString)
+                                    .orElse(""));
+                    throw new FileAlreadyExistsException(message);
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // Unreadable entries and link cycles are left out, as they were when listing directories.
+            logger.warn("Skipping {}: {}", file, exc.getMessage());
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.protop.core.sync;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.protop.core.Context;
+import io.protop.core.auth.AuthService;
+import io.protop.core.grpc.GrpcService;
+import io.protop.core.registry.RegistryRouter;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+import java.net.MalformedURLException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What resolvers share when several dependency graphs are resolved at once (i.e. by a fetch of several projects), so
+ * that together they still log in once, keep a single record of how each registry is doing, and make no more
+ * registry requests or git operations at a time than the configured number of jobs.
+ */
+public class ResolverResources {
+
+    private static final int DEFAULT_JOBS = 8;
+    private static final int DEFAULT_GIT_JOBS = 4;
+
+    // Nobody shuts the git threads down, so they go away once there is nothing left for them to do.
+    private static final long GIT_THREAD_IDLE_SECONDS = 30;
+
+    private final AuthService authService;
+    private final GrpcService grpcService;
+    private final Context context;
+
+    private final Semaphore jobs;
+    private final Scheduler gitScheduler;
+
+    private RegistryRouter registryRouter;
+
+    public ResolverResources(AuthService authService, GrpcService grpcService, Context context) {
+        this.authService = authService;
+        this.grpcService = grpcService;
+        this.context = context;
+        this.jobs = new Semaphore(getJobs(), true);
+
+        ThreadPoolExecutor gitExecutor = new ThreadPoolExecutor(getGitJobs(), getGitJobs(),
+                GIT_THREAD_IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("protop-git-%d")
+                        .setDaemon(true)
+                        .build());
+        gitExecutor.allowCoreThreadTimeOut(true);
+        this.gitScheduler = Schedulers.from(gitExecutor);
+    }
+
+    /**
+     * @return the maximum number of registry requests at a time.
+     */
+    int getJobs() {
+        return Optional.ofNullable(context.getRc().getSyncJobs())
+                .filter(jobs -> jobs > 0)
+                .orElse(DEFAULT_JOBS);
+    }
+
+    private int getGitJobs() {
+        return Optional.ofNullable(context.getRc().getGitJobs())
+                .filter(jobs -> jobs > 0)
+                .orElse(DEFAULT_GIT_JOBS);
+    }
+
+    /**
+     * Git repositories are fetched on their own threads, so that they neither wait for nor hold up the registry
+     * requests.
+     */
+    Scheduler getGitScheduler() {
+        return gitScheduler;
+    }
+
+    /**
+     * The router (and the credentials and latencies behind it) is shared by every request, so that concurrent
+     * requests don't each log in separately.
+     */
+    synchronized RegistryRouter getRegistryRouter() throws MalformedURLException {
+        if (Objects.isNull(registryRouter)) {
+            registryRouter = RegistryRouter.from(authService, grpcService, context.getRc());
+        }
+        return registryRouter;
+    }
+
+    /**
+     * Make the request once one of the jobs is free, and hold on to it until the request is done. Waiting for it
+     * blocks, so this is meant to be subscribed to on an I/O thread.
+     */
+    <T> Maybe<T> limit(Maybe<T> request) {
+        return Maybe.using(
+                () -> {
+                    jobs.acquire();
+                    return jobs;
+                },
+                acquired -> request,
+                Semaphore::release);
+    }
+}
@@ -1,10 +1,13 @@
 package io.protop.core.sync;
 
-import com.google.common.collect.ImmutableList;
 import io.protop.core.Context;
 import io.protop.core.auth.AuthService;
+import io.protop.core.cache.CacheCollector;
 import io.protop.core.cache.CacheService;
 import io.protop.core.grpc.GrpcService;
+import io.protop.core.lock.Lockfile;
+import io.protop.core.lock.LockfileNotFound;
+import io.protop.core.lock.LockfileOutOfDate;
 import io.protop.core.logs.Logger;
 import io.protop.core.manifest.DependencyMap;
 import io.protop.core.manifest.PackageId;
@@ -14,13 +17,10 @@ import io.protop.core.storage.StorageService;
 import io.protop.core.sync.status.SyncStatus;
 import io.protop.core.sync.status.Syncing;
 import io.reactivex.Observable;
-import lombok.Getter;
-import org.apache.commons.io.FileUtils;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.schedulers.Schedulers;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -52,20 +52,27 @@ public class SyncService {
      * @return unresolved dependencies.
      */
     public Observable<SyncStatus> sync(DependencyResolutionConfiguration dependencyResolutionConfiguration) {
-        return Observable.create(emitter -> {
-            Path dependenciesDir = resolveEmptySubDir(Storage.ProjectDirectory.DEPS);
+        return Observable.create(unserializedEmitter -> {
+            // Statuses may be emitted from several threads while dependencies are retrieved.
+            ObservableEmitter<SyncStatus> emitter = unserializedEmitter.serialize();
+            Path dependenciesDir = resolveSubDir(Storage.ProjectDirectory.DEPS);
 
             List<DependencyResolver> resolvers = new ArrayList<>();
             if (dependencyResolutionConfiguration.includesLinkedDependencies) {
                 resolvers.add(new LinkedDependencyResolver());
             }
 
-            // Currently always use cached/external dependencies.
-            resolvers.add(new ExternalDependencyResolver(authService, storageService, cacheService, context,
-                    grpcService));
-
             DependencyMap dependencyMap = Optional.ofNullable(context.getManifest().getDependencies())
                     .orElseGet(DependencyMap::new);
+
+            Lockfile lockfile = dependencyResolutionConfiguration.frozen
+                    ? loadUpToDateLockfile(dependencyMap)
+                    : null;
+
+            // Currently always use cached/external dependencies.
+            ExternalDependencyResolver externalDependencyResolver = new ExternalDependencyResolver(authService,
+                    storageService, cacheService, context, grpcService, emitter::onNext, lockfile);
+            resolvers.add(externalDependencyResolver);
             AtomicReference<Map<PackageId, RevisionSource>> unresolvedDependencies = new AtomicReference<>(
                     dependencyMap.getValues());
 
@@ -78,125 +85,87 @@ public class SyncService {
                 unresolvedDependencies.set(next);
             });
 
+            // Dependencies are linked in place, so anything that wasn't linked again this time is left over.
+            Set<PackageId> linkedDependencies = new HashSet<>();
+            resolvers.forEach(resolver -> linkedDependencies.addAll(resolver.getLinkedDependencies()));
+            SyncUtils.removeOtherDependencies(dependenciesDir, linkedDependencies);
+
             mergeDepsToPath(dependenciesDir);
 
             Map<PackageId, RevisionSource> ultimatelyUnresolved = unresolvedDependencies.get();
             if (!ultimatelyUnresolved.isEmpty()) {
                 emitter.onError(new IncompleteSync(ultimatelyUnresolved));
             } else {
+                // Linked projects stand in for (part of) the graph, so only a sync without them is recorded.
+                if (!dependencyResolutionConfiguration.frozen
+                        && !dependencyResolutionConfiguration.includesLinkedDependencies) {
+                    writeLockfile(Lockfile.of(
+                            dependencyMap.getValues(),
+                            externalDependencyResolver.getLockedDependencies()));
+                }
+                if (Optional.ofNullable(context.getRc().getCacheAutoGc()).orElse(false)) {
+                    collectGarbage(dependenciesDir);
+                }
                 emitter.onComplete();
             }
         });
     }
 
-    @Getter
-    private static class DirectoryWithFiles {
-        private final Map<String, File> files = new HashMap<>();
-        private final Map<String, DirectoryWithFiles> subdirectories = new HashMap<>();
-    }
-
-    private List<File> validProtoFilesOrDirectories(File[] files) {
-        List<String> invalidDirectoryNames = ImmutableList.of("node_modules");
-        List<File> validFiles = new ArrayList<>();
-        for (File file : files) {
-            if (!file.getName().startsWith(".") && !file.isHidden()) {
-                if (file.isDirectory() && !invalidDirectoryNames.contains(file.getName())) {
-                    validFiles.add(file);
-                } else if (file.isFile() && file.getName().endsWith(".proto")) {
-                    validFiles.add(file);
-                }
-            }
+    private Lockfile loadUpToDateLockfile(DependencyMap dependencyMap) {
+        Lockfile lockfile = Lockfile.from(context.getProjectLocation())
+                .orElseThrow(LockfileNotFound::new);
+        if (!lockfile.isUpToDate(dependencyMap.getValues())) {
+            throw new LockfileOutOfDate();
         }
-        return validFiles;
+        return lockfile;
     }
 
-    /**
-     * Filter the children directories and files and add to the given tree.
-     */
-    private void filterValidChildren(DirectoryWithFiles directoryWithFiles, File path) throws FileAlreadyExistsException {
-        if (path.isDirectory()) {
-            File[] children = Optional.ofNullable(path.listFiles())
-                    .orElse(new File[]{});
-            for (File child : validProtoFilesOrDirectories(children)) {
-                if (child.isDirectory()) {
-                    DirectoryWithFiles childDirectory = directoryWithFiles.subdirectories.computeIfAbsent(
-                            child.getName(),
-                            name -> new DirectoryWithFiles());
-                    filterValidChildren(childDirectory, child);
-                    // If the child directory ended up with nothing in it, remove it.
-                    // This isn't the most efficient thing, but it does save us from having to traverse the
-                    // entire tree again in order to remove empty directories.
-                    if (childDirectory.subdirectories.isEmpty() && childDirectory.files.isEmpty()) {
-                        directoryWithFiles.subdirectories.remove(child.getName());
-                    }
-                } else {
-                    if (directoryWithFiles.files.containsKey(child.getName())) {
-                        String message = String.format(
-                                "Proto file with name %s already exists under parent directory \"%s\"",
-                                child.getName(),
-                                path.getName());
-                        throw new FileAlreadyExistsException(message);
-                    } else {
-                        directoryWithFiles.files.put(child.getName(), child);
-                    }
-                }
-            }
-        } else {
-            throw new RuntimeException("Can not traverse this file since it is not a directory!");
-        }
+    private void writeLockfile(Lockfile lockfile) {
+        storageService.storeJson(lockfile, context.getProjectLocation().resolve(Lockfile.PROTOP_LOCK));
     }
 
     /**
-     * Create subdirectories and symlink files in the given parent.
+     * Evict what the cache limits don't allow, except for what was just synced. The trash is emptied in the
+     * background, so the sync doesn't wait for it; whatever is left is deleted the next time.
      */
-    private void mergeChildrenToParentDirectory(File parent, DirectoryWithFiles children) throws IOException {
-        for (Map.Entry<String, File> fileEntry : children.getFiles().entrySet()) {
-            Files.createSymbolicLink(parent.toPath().resolve(fileEntry.getKey()),
-                    fileEntry.getValue().toPath());
-        }
-        for (Map.Entry<String, DirectoryWithFiles> directoryEntry : children.getSubdirectories().entrySet()) {
-            Path created = Files.createDirectory(parent.toPath().resolve(directoryEntry.getKey()));
-            mergeChildrenToParentDirectory(created.toFile(), directoryEntry.getValue());
+    private void collectGarbage(Path dependenciesDir) {
+        try {
+            CacheCollector.Result result = cacheService.collectGarbage(CacheCollector.Policy.builder()
+                    .maxSize(context.getRc().getCacheMaxSize())
+                    .maxAge(context.getRc().getCacheMaxAge())
+                    .retained(CacheCollector.getEntriesLinkedFrom(dependenciesDir))
+                    .build())
+                    .blockingGet();
+            logger.info("Evicted {} entries from the cache.", result.getEvicted());
+            cacheService.emptyTrash()
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(() -> {}, t -> logger.warn("Failed to empty the trash.", t));
+        } catch (IOException | RuntimeException e) {
+            // The sync itself is done.
+            logger.warn("Failed to collect garbage in the cache.", e);
         }
     }
 
     private void mergeDepsToPath(Path depsDir) throws IOException {
-        DirectoryWithFiles depsTree = new DirectoryWithFiles();
-        File[] orgs = Optional.ofNullable(depsDir.toFile().listFiles())
-                .orElse(new File[]{});
-        for (File org : orgs) {
-            if (org.isDirectory()) {
-                File[] projects = Optional.ofNullable(org.listFiles())
-                        .orElse(new File[]{});
-                for (File project : projects) {
-                    // For every project, traverse its items and add to the dependency tree.
-                    if (project.isDirectory()) {
-                        filterValidChildren(depsTree, project);
-                    }
-                }
-            }
-        }
-
-        Path mergedDepsPath = resolveEmptySubDir(Storage.ProjectDirectory.PATH);
-        mergeChildrenToParentDirectory(mergedDepsPath.toFile(), depsTree);
+        Map<Path, Path> links = new ProtoFileScanner(depsDir).scan();
+        new MergedPath(resolveProtopDir()).update(links);
     }
 
-    /**
-     * Generic method to resolve an empty subdirectory (create, or otherwise delete and recreate)
-     * under the .protop directory.
-     */
-    private Path resolveEmptySubDir(Storage.ProjectDirectory dir) throws IOException {
+    private Path resolveProtopDir() {
         Path protopPath = context.getProjectLocation()
                 .resolve(Storage.ProjectDirectory.PROTOP.getName());
         storageService.createDirectoryIfNotExists(protopPath)
                 .blockingAwait();
-        Path dirPath = protopPath.resolve(dir.getName());
+        return protopPath;
+    }
+
+    /**
+     * Generic method to resolve a subdirectory under the .protop directory, creating it if necessary.
+     */
+    private Path resolveSubDir(Storage.ProjectDirectory dir) {
+        Path dirPath = resolveProtopDir().resolve(dir.getName());
         storageService.createDirectoryIfNotExists(dirPath)
                 .blockingAwait();
-
-        // This is fairly inexpensive and ensures better likelihood of the correct final state of things.
-        FileUtils.cleanDirectory(dirPath.toFile());
-
         return dirPath;
     }
 }
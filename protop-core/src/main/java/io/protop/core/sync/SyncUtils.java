@@ -1,10 +1,15 @@
 package io.protop.core.sync;
 
 import io.protop.core.manifest.PackageId;
+import org.apache.commons.io.FileUtils;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Set;
 
 public class SyncUtils {
 
@@ -12,6 +17,9 @@ public class SyncUtils {
         // no op
     }
 
+    /**
+     * Links the dependency to its source directory, leaving an existing link alone if it already points there.
+     */
     public static void createSymbolicLink(Path dependencyDir, PackageId packageId, Path srcDir) throws IOException {
         Path orgPath = dependencyDir.resolve(packageId.getOrganization());
 
@@ -21,14 +29,59 @@ public class SyncUtils {
         }
 
         Path projectPath = orgPath.resolve(packageId.getProject());
-        if (Files.exists(projectPath)) {
-            if (Files.isSymbolicLink(projectPath)) {
+        if (Files.isSymbolicLink(projectPath)) {
+            if (Objects.equals(Files.readSymbolicLink(projectPath), srcDir)) {
                 return;
-            } else {
-                Files.delete(projectPath);
             }
+        } else if (Files.isDirectory(projectPath)) {
+            FileUtils.deleteDirectory(projectPath.toFile());
         }
 
-        Files.createSymbolicLink(projectPath, srcDir);
+        replaceSymbolicLink(projectPath, srcDir);
+    }
+
+    /**
+     * Points the link at the target, replacing whatever is there in a single step
+     * so that nothing reading through the link ever finds it missing.
+     */
+    public static void replaceSymbolicLink(Path link, Path target) throws IOException {
+        Path temporaryLink = link.resolveSibling("." + link.getFileName() + ".tmp");
+        Files.deleteIfExists(temporaryLink);
+        Files.createSymbolicLink(temporaryLink, target);
+        Files.move(temporaryLink, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Removes every dependency from the directory that isn't one of the given ones.
+     */
+    public static void removeOtherDependencies(Path dependencyDir, Set<PackageId> packageIds) throws IOException {
+        try (DirectoryStream<Path> orgs = Files.newDirectoryStream(dependencyDir)) {
+            for (Path orgPath : orgs) {
+                if (!Files.isDirectory(orgPath) || Files.isSymbolicLink(orgPath)) {
+                    Files.delete(orgPath);
+                    continue;
+                }
+
+                boolean empty = true;
+                try (DirectoryStream<Path> projects = Files.newDirectoryStream(orgPath)) {
+                    for (Path projectPath : projects) {
+                        PackageId packageId = new PackageId(
+                                orgPath.getFileName().toString(),
+                                projectPath.getFileName().toString());
+                        if (packageIds.contains(packageId)) {
+                            empty = false;
+                        } else if (Files.isSymbolicLink(projectPath) || !Files.isDirectory(projectPath)) {
+                            Files.delete(projectPath);
+                        } else {
+                            FileUtils.deleteDirectory(projectPath.toFile());
+                        }
+                    }
+                }
+
+                if (empty) {
+                    Files.delete(orgPath);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,14 @@
+package io.protop.core.sync.status;
+
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class Fetching implements SyncStatus {
+
+    private final String description;
+
+    @Override
+    public String getMessage() {
+        return String.format("Fetching %s.", description);
+    }
+}
@@ -0,0 +1,30 @@
+package io.protop.core.sync.status;
+
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.GitSource;
+import lombok.AllArgsConstructor;
+
+/**
+ * Progress of one task (e.g. "Receiving objects") of fetching a git repository.
+ */
+@AllArgsConstructor
+public class GitProgress implements SyncStatus {
+
+    private final PackageId packageId;
+    private final GitSource gitSource;
+    private final String task;
+    private final int completed;
+
+    // Zero if the total isn't known.
+    private final int total;
+
+    @Override
+    public String getMessage() {
+        if (total > 0) {
+            return String.format("Fetching %s %s: %s %d%% (%d/%d).",
+                    packageId, gitSource, task, completed * 100 / total, completed, total);
+        } else {
+            return String.format("Fetching %s %s: %s %d.", packageId, gitSource, task, completed);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package io.protop.core.sync.status;
+
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.RevisionSource;
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+public class Retrieving implements SyncStatus {
+
+    private final PackageId packageId;
+    private final RevisionSource revisionSource;
+
+    @Override
+    public String getMessage() {
+        return String.format("Retrieving %s %s.", packageId, revisionSource);
+    }
+}
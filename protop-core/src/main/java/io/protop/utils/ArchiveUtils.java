@@ -0,0 +1,107 @@
+package io.protop.utils;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+public class ArchiveUtils {
+
+    private ArchiveUtils() {
+        // no op
+    }
+
+    /**
+     * Writes the content of an archive entry to its path.
+     */
+    @FunctionalInterface
+    public interface EntryWriter {
+
+        void write(InputStream content, long size, boolean executable, Path path) throws IOException;
+    }
+
+    /**
+     * Extracts the files of a g-zipped tarball, as it is streamed, into the destination.
+     */
+    public static void extractTarGz(@NotNull InputStream tarball, @NotNull Path destination) throws IOException {
+        extractTarGz(tarball, destination, Function.identity(), ArchiveUtils::copy);
+    }
+
+    /**
+     * Extracts the files of a g-zipped tarball, as it is streamed, into the destination.
+     *
+     * @param entryPaths maps the name of each entry to its path relative to the destination, or to null to leave
+     *                   the entry out.
+     * @param writer writes each file.
+     */
+    public static void extractTarGz(@NotNull InputStream tarball,
+                                    @NotNull Path destination,
+                                    @NotNull Function<String, String> entryPaths,
+                                    @NotNull EntryWriter writer) throws IOException {
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new GZIPInputStream(tarball))) {
+            TarArchiveEntry entry = tis.getNextTarEntry();
+            while (Objects.nonNull(entry)) {
+                String entryPath = entry.isFile() ? entryPaths.apply(entry.getName()) : null;
+                if (Objects.nonNull(entryPath)) {
+                    Path path = destination.resolve(entryPath).normalize();
+                    if (!path.startsWith(destination)) {
+                        throw new IOException("Archive entry is outside of the target directory: " + entry.getName());
+                    }
+                    Files.createDirectories(path.getParent());
+                    writer.write(tis, entry.getSize(), (entry.getMode() & 0100) != 0, path);
+                }
+                entry = tis.getNextTarEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes the files under a directory as a g-zipped tarball, with their paths relative to the directory. The
+     * output stream is finished, but not closed.
+     */
+    public static void writeTarGz(@NotNull Path directory, @NotNull OutputStream outputStream) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        GzipCompressorOutputStream gzipOutputStream = new GzipCompressorOutputStream(outputStream);
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(gzipOutputStream);
+        tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        for (Path file : files) {
+            TarArchiveEntry entry = new TarArchiveEntry(DigestUtils.toUnixPath(directory.relativize(file)));
+            entry.setSize(Files.size(file));
+            entry.setMode(Files.isExecutable(file) ? 0100755 : 0100644);
+            tos.putArchiveEntry(entry);
+            Files.copy(file, tos);
+            tos.closeArchiveEntry();
+        }
+        tos.finish();
+        gzipOutputStream.finish();
+    }
+
+    private static void copy(InputStream content, long size, boolean executable, Path path) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            IOUtils.copy(content, outputStream);
+        }
+        if (executable) {
+            path.toFile().setExecutable(true);
+        }
+    }
+}
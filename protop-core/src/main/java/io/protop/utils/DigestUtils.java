@@ -0,0 +1,141 @@
+package io.protop.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class DigestUtils {
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final String SHASUM_ALGORITHM = "SHA-1";
+    private static final String SRI_PREFIX = "sha256-";
+    private static final int BUFFER_SIZE = 8192;
+
+    private DigestUtils() {
+        // no op
+    }
+
+    public static MessageDigest newDigest() {
+        return newDigest(ALGORITHM);
+    }
+
+    /**
+     * The digest of a "shasum" (SHA-1, formatted as hex), which some registries expect next to the integrity.
+     */
+    public static MessageDigest newShasumDigest() {
+        return newDigest(SHASUM_ALGORITHM);
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1 and SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Formats a digest as a subresource integrity string, e.g. <code>sha256-...</code>.
+     */
+    public static String toIntegrity(byte[] digest) {
+        return SRI_PREFIX + Base64.getEncoder().encodeToString(digest);
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    public static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex digest: " + hex);
+        }
+        byte[] digest = new byte[hex.length() / 2];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return digest;
+    }
+
+    public static byte[] digestFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Digest of the contents of a directory, independent of where the directory is or when its files were written.
+     * Every regular file contributes its path (relative to the directory) and the digest of its contents, in path
+     * order. Hidden files and directories (such as <code>.git</code>) are skipped.
+     */
+    public static String digestDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile)
+                    .map(directory::relativize)
+                    .collect(Collectors.toList());
+        }
+
+        Map<String, String> fileDigests = new HashMap<>();
+        for (Path file : files) {
+            String unixPath = toUnixPath(file);
+            if (isVisible(unixPath)) {
+                fileDigests.put(unixPath, toHex(digestFile(directory.resolve(file))));
+            }
+        }
+        return digestFiles(fileDigests);
+    }
+
+    /**
+     * The same digest as {@link #digestDirectory(Path)}, from digests of the files that are already known (i.e. as
+     * they were written), so that nothing has to be read again.
+     *
+     * @param fileDigests hex SHA-256 digests of the files, keyed by their paths relative to the directory (with "/"
+     *                    separators).
+     */
+    public static String digestFiles(Map<String, String> fileDigests) {
+        MessageDigest digest = newDigest();
+        new TreeMap<>(fileDigests).forEach((path, fileDigest) -> {
+            if (isVisible(path)) {
+                digest.update(path.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(fromHex(fileDigest));
+            }
+        });
+        return toIntegrity(digest.digest());
+    }
+
+    private static boolean isVisible(String unixPath) {
+        for (String segment : unixPath.split("/")) {
+            if (segment.startsWith(".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String toUnixPath(Path relativePath) {
+        return relativePath.toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,96 @@
+package io.protop.utils;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+public class UnitUtils {
+
+    private UnitUtils() {
+        // no op
+    }
+
+    /**
+     * Parse a duration such as "250ms", "90s", "15m", "12h" or "7d" (seconds, if there is no unit), or in ISO-8601
+     * format.
+     * @throws IllegalArgumentException if it isn't a valid duration.
+     */
+    public static Duration parseDuration(String value) {
+        String trimmed = value.trim().toLowerCase();
+        try {
+            if (trimmed.startsWith("p")) {
+                return Duration.parse(trimmed);
+            }
+            char unit = trimmed.charAt(trimmed.length() - 1);
+            if (Character.isDigit(unit)) {
+                return Duration.ofSeconds(Long.parseLong(trimmed));
+            } else if (trimmed.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+            }
+            long amount = Long.parseLong(trimmed.substring(0, trimmed.length() - 1));
+            switch (unit) {
+                case 's':
+                    return Duration.ofSeconds(amount);
+                case 'm':
+                    return Duration.ofMinutes(amount);
+                case 'h':
+                    return Duration.ofHours(amount);
+                case 'd':
+                    return Duration.ofDays(amount);
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown unit of duration: %s.", value));
+            }
+        } catch (NumberFormatException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Invalid duration: %s.", value), e);
+        }
+    }
+
+    /**
+     * Parse a number of bytes such as "500m", "10g" or "1t" (in units of 1024; bytes, if there is no unit). A
+     * trailing "b" is ignored, i.e. "10gb" is the same as "10g".
+     * @throws IllegalArgumentException if it isn't a valid size.
+     */
+    public static long parseSize(String value) {
+        String trimmed = value.trim().toLowerCase();
+        if (trimmed.length() > 1 && trimmed.endsWith("b")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        try {
+            char unit = trimmed.charAt(trimmed.length() - 1);
+            if (Character.isDigit(unit)) {
+                return Long.parseLong(trimmed);
+            }
+            long amount = Long.parseLong(trimmed.substring(0, trimmed.length() - 1));
+            switch (unit) {
+                case 'k':
+                    return amount << 10;
+                case 'm':
+                    return amount << 20;
+                case 'g':
+                    return amount << 30;
+                case 't':
+                    return amount << 40;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown unit of size: %s.", value));
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Invalid size: %s.", value), e);
+        }
+    }
+
+    /**
+     * Format a number of bytes for people to read, e.g. "1.5 GiB".
+     */
+    public static String formatSize(long bytes) {
+        String[] units = {"KiB", "MiB", "GiB", "TiB"};
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        double size = bytes;
+        int unit = -1;
+        while (size >= 1024 && unit < units.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", size, units[unit]);
+    }
+}
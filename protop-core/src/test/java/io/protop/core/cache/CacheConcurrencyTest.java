@@ -0,0 +1,202 @@
+package io.protop.core.cache;
+
+import io.protop.core.manifest.Manifest;
+import io.protop.core.manifest.PackageId;
+import io.protop.core.manifest.revision.GitSource;
+import io.protop.core.manifest.revision.Version;
+import io.protop.core.storage.Storage;
+import io.protop.core.storage.StorageLock;
+import io.protop.core.storage.StorageService;
+import io.protop.utils.ArchiveUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads at once against the cache, each test in a fresh protop home.
+ */
+public class CacheConcurrencyTest {
+
+    private static final int THREADS = 48;
+    private static final int VERSIONS = 6;
+
+    private final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+    @BeforeClass
+    public static void useTemporaryHome() throws IOException {
+        // Storage reads this once, the first time it is used.
+        System.setProperty("user.home", Files.createTempDirectory("protop-test").toString());
+    }
+
+    @After
+    public void clearCache() throws IOException {
+        CacheIndex.load().clear();
+    }
+
+    @Test
+    public void retrievesEachVersionOnce() throws Exception {
+        PackageId packageId = PackageId.from("test/retrieved");
+        CacheService cacheService = new CacheService(new StorageService());
+        Map<Version, AtomicInteger> downloads = new ConcurrentHashMap<>();
+        Map<Version, Set<Path>> paths = new ConcurrentHashMap<>();
+        for (int i = 0; i < VERSIONS; i++) {
+            Version version = Version.of("1.0." + i);
+            downloads.put(version, new AtomicInteger());
+            paths.put(version, ConcurrentHashMap.newKeySet());
+        }
+
+        runConcurrently(thread -> {
+            // Several threads per version, so each is asked for at the same time as the others.
+            Version version = Version.of("1.0." + (thread % VERSIONS));
+            byte[] tarball = createTarball(packageId, version);
+            Path path = cacheService.getOrRetrieve(packageId, version, null, () -> {
+                downloads.get(version).incrementAndGet();
+                return new ByteArrayInputStream(tarball);
+            }).blockingGet();
+            paths.get(version).add(path);
+        });
+
+        CacheIndex reloaded = CacheIndex.load();
+        downloads.forEach((version, count) -> {
+            assertEquals("Downloads of " + version, 1, count.get());
+            assertEquals("Paths of " + version, 1, paths.get(version).size());
+            Path path = paths.get(version).iterator().next();
+            assertTrue(Files.isRegularFile(path.resolve(Manifest.PROTOP_JSON)));
+            assertEquals(Optional.of(path), reloaded.get(packageId, version).map(CacheIndex.Entry::getPath));
+        });
+    }
+
+    @Test
+    public void recordsEveryEntry() throws Exception {
+        CacheIndex index = CacheIndex.load();
+        PackageId shared = PackageId.from("test/shared");
+        int versionsPerThread = 10;
+
+        runConcurrently(thread -> {
+            PackageId own = PackageId.from("test/own-" + thread);
+            for (int i = 0; i < versionsPerThread; i++) {
+                // The same package as every other thread, and one of its own.
+                Version version = Version.of(thread + ".0." + i);
+                index.record(shared, version, createEntry(shared, version));
+                index.record(own, version, createEntry(own, version));
+                assertTrue(index.getVersions(shared).containsKey(version));
+                assertTrue(index.getVersions(own).containsKey(version));
+            }
+        });
+
+        for (CacheIndex checked : List.of(index, CacheIndex.load())) {
+            assertEquals(THREADS * versionsPerThread, checked.getVersions(shared).size());
+            for (int thread = 0; thread < THREADS; thread++) {
+                PackageId own = PackageId.from("test/own-" + thread);
+                assertEquals(versionsPerThread, checked.getVersions(own).size());
+            }
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void updatesIndexWhileHoldingVersionLocks() throws Exception {
+        CacheIndex index = CacheIndex.load();
+        PackageId packageId = PackageId.from("test/locked");
+        int versions = 1_000;
+
+        // As when a version is cached: its lock is held while the index's is taken. Enough versions that some
+        // would have shared a lock with the index if locks were ever shared between files.
+        for (int i = 0; i < versions; i++) {
+            Version version = Version.of("1.0." + i);
+            try (StorageLock ignored = StorageLock.acquire(CacheService.getLockPath(packageId, version))) {
+                index.reload(packageId);
+                index.record(packageId, version, createEntry(packageId, version));
+            }
+        }
+
+        assertEquals(versions, CacheIndex.load().getVersions(packageId).size());
+    }
+
+    @Test
+    public void resolvesEachGitSourceOnce() throws Exception {
+        GitCache gitCache = new GitCache();
+        PackageId packageId = PackageId.from("test/git");
+        int sources = 4;
+        Map<GitSource, Set<String>> resolved = new ConcurrentHashMap<>();
+
+        runConcurrently(thread -> {
+            GitSource gitSource = GitSource.fromRawPrefixedInput("git:https://example.com/repo-"
+                    + (thread % sources) + ".git");
+            // Each thread resolves it to a different commit; only the first one counts.
+            String commit = gitCache.put(packageId, gitSource, "commit-" + thread);
+            assertEquals(Optional.of(commit), gitCache.get(packageId, gitSource));
+            resolved.computeIfAbsent(gitSource, s -> ConcurrentHashMap.newKeySet()).add(commit);
+        });
+
+        assertEquals(sources, resolved.size());
+        resolved.forEach((gitSource, commits) -> assertEquals(gitSource.toString(), 1, commits.size()));
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Run the task on every thread, all starting at once, and fail if any of them throws.
+     */
+    private void runConcurrently(Task task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                executor.execute(() -> {
+                    ready.countDown();
+                    try {
+                        start.await();
+                        task.run(thread);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                });
+            }
+            ready.await();
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue("Timed out.", executor.awaitTermination(2, TimeUnit.MINUTES));
+        if (!errors.isEmpty()) {
+            AssertionError failure = new AssertionError(errors.size() + " thread(s) failed.");
+            errors.forEach(failure::addSuppressed);
+            throw failure;
+        }
+    }
+
+    private static byte[] createTarball(PackageId packageId, Version version) throws IOException {
+        Path directory = Files.createTempDirectory("protop-package");
+        Files.writeString(directory.resolve(Manifest.PROTOP_JSON), String.format(
+                "{\"organization\": \"%s\", \"name\": \"%s\", \"version\": \"%s\"}",
+                packageId.getOrganization(), packageId.getProject(), version));
+        Files.write(directory.resolve("test.proto"), "syntax = \"proto3\";\n".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream tarball = new ByteArrayOutputStream();
+        ArchiveUtils.writeTarGz(directory, tarball);
+        return tarball.toByteArray();
+    }
+
+    private static CacheIndex.Entry createEntry(PackageId packageId, Version version) {
+        Path path = Storage.pathOf(Storage.GlobalDirectory.CACHE)
+                .resolve(packageId.getOrganization())
+                .resolve(packageId.getProject())
+                .resolve(version.toString());
+        return new CacheIndex.Entry(path, null, Map.of(), Map.of());
+    }
+}